@@ -0,0 +1,96 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overlay color blend over a blurred capture: {@link BlendEngine} against the float math
+ * of the RenderScript kernel in BlendEx.rs, ported one to one.
+ * <p>
+ * The RenderScript kernel itself can't run on a plain JVM, the port measures its arithmetic
+ * without the GPU dispatch and the copy back to the bitmap, which come on top on a device.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BlendBenchmark {
+
+    @Param({"192x128", "256x448"})
+    public String size;
+
+    @Param({"15", "16", "17"})
+    public int mode;
+
+    /**
+     * Share of translucent pixels, which take the arithmetic path of the engine
+     */
+    @Param({"0", "10"})
+    public int translucentPercent;
+
+    private final BlendEngine engine = new BlendEngine();
+    private int[] source;
+    private int[] pixels;
+    private float overlayR;
+    private float overlayG;
+    private float overlayB;
+    private float overlayA;
+
+    @Setup
+    public void setUp() {
+        int separator = size.indexOf('x');
+        int count = Integer.parseInt(size.substring(0, separator)) * Integer.parseInt(size.substring(separator + 1));
+
+        source = new int[count];
+        pixels = new int[count];
+        Random random = new Random(42);
+        for (int i = 0; i < count; i++) {
+            int alpha = random.nextInt(100) < translucentPercent ? random.nextInt(255) : 255;
+            int r = random.nextInt(alpha + 1);
+            int g = random.nextInt(alpha + 1);
+            int b = random.nextInt(alpha + 1);
+            source[i] = alpha << 24 | b << 16 | g << 8 | r;
+        }
+
+        // Dialogs blend white
+        int color = 0xffffffff;
+        engine.setOverlay(color, mode);
+        overlayA = (color >>> 24) / 255f;
+        overlayR = ((color >> 16) & 0xff) / 255f;
+        overlayG = ((color >> 8) & 0xff) / 255f;
+        overlayB = (color & 0xff) / 255f;
+    }
+
+    @Benchmark
+    public int[] lookupTables() {
+        System.arraycopy(source, 0, pixels, 0, source.length);
+        engine.blend(pixels, 0, pixels.length);
+        return pixels;
+    }
+
+    @Benchmark
+    public int[] renderScriptFloat() {
+        System.arraycopy(source, 0, pixels, 0, source.length);
+        int outAlpha = Math.round(overlayA * 255f);
+        for (int i = 0; i < pixels.length; i++) {
+            int p = pixels[i];
+            float r = blendOverlay((p & 0xff) / 255f, overlayR);
+            float g = blendOverlay(((p >>> 8) & 0xff) / 255f, overlayG);
+            float b = blendOverlay(((p >>> 16) & 0xff) / 255f, overlayB);
+            pixels[i] = outAlpha << 24 | Math.round(b * 255f) << 16 | Math.round(g * 255f) << 8 | Math.round(r * 255f);
+        }
+        return pixels;
+    }
+
+    private static float blendOverlay(float base, float blend) {
+        return base < 0.5f ? 2f * base * blend : 1f - 2f * (1f - base) * (1f - blend);
+    }
+}
@@ -0,0 +1,139 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One blur of a capture bitmap by each CPU kernel.
+ * <p>
+ * Sizes are what {@link BlurCapture} allocates: BlurView size divided by the scale factor
+ * plus the radius margin, rounded up to 64. 192x128 is the alert dialog and the action sheet
+ * on a 1080p phone, 256x448 a full screen BlurView on a 1440p one.
+ * <p>
+ * Pixels are blurred in place, so each call blurs the previous result. None of the kernels
+ * takes a content dependent path, so that doesn't change the timing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BlurKernelBenchmark {
+
+    private interface Kernel {
+        void blur(int[] pixels, int width, int height, float radius);
+
+        void release();
+    }
+
+    @Param({"stack", "box", "iir", "kawase"})
+    public String kernel;
+
+    @Param({"128x128", "192x128", "192x192", "256x448"})
+    public String size;
+
+    @Param({"4", "8", "16", "25", "40"})
+    public float radius;
+
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    private Kernel blurKernel;
+    private int[] pixels;
+    private int width;
+    private int height;
+
+    @Setup
+    public void setUp() {
+        int separator = size.indexOf('x');
+        width = Integer.parseInt(size.substring(0, separator));
+        height = Integer.parseInt(size.substring(separator + 1));
+
+        pixels = new int[width * height];
+        Random random = new Random(42);
+        for (int i = 0; i < pixels.length; i++) {
+            // Opaque, premultiplied is then the same as straight
+            pixels[i] = random.nextInt() | 0xff000000;
+        }
+
+        blurKernel = createKernel(kernel, new BlurWorkers(threads));
+    }
+
+    @TearDown
+    public void tearDown() {
+        blurKernel.release();
+    }
+
+    @Benchmark
+    public int[] blur() {
+        blurKernel.blur(pixels, width, height, radius);
+        return pixels;
+    }
+
+    private static Kernel createKernel(String name, BlurWorkers workers) {
+        switch (name) {
+            case "stack":
+                final StackBlurKernel stack = new StackBlurKernel(workers);
+                return new Kernel() {
+                    @Override
+                    public void blur(int[] pixels, int width, int height, float radius) {
+                        stack.blur(pixels, width, height, radius, null);
+                    }
+
+                    @Override
+                    public void release() {
+                        stack.release();
+                    }
+                };
+            case "box":
+                final BoxBlurKernel box = new BoxBlurKernel(workers);
+                return new Kernel() {
+                    @Override
+                    public void blur(int[] pixels, int width, int height, float radius) {
+                        box.blur(pixels, width, height, radius, null);
+                    }
+
+                    @Override
+                    public void release() {
+                        box.release();
+                    }
+                };
+            case "iir":
+                final IirGaussianKernel iir = new IirGaussianKernel(workers);
+                return new Kernel() {
+                    @Override
+                    public void blur(int[] pixels, int width, int height, float radius) {
+                        iir.blur(pixels, width, height, radius, null);
+                    }
+
+                    @Override
+                    public void release() {
+                        iir.release();
+                    }
+                };
+            case "kawase":
+                final DualKawaseKernel kawase = new DualKawaseKernel(workers);
+                return new Kernel() {
+                    @Override
+                    public void blur(int[] pixels, int width, int height, float radius) {
+                        kawase.blur(pixels, width, height, radius, null);
+                    }
+
+                    @Override
+                    public void release() {
+                        kawase.release();
+                    }
+                };
+            default:
+                throw new IllegalArgumentException("Unknown kernel: " + name);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Barrier tint, blur and overlay blend of one capture, as separate passes and fused.
+ * <p>
+ * {@code separate} is what the controllers do for algorithms which aren't a {@link FusedBlurAlgorithm}:
+ * the barrier is drawn over the whole capture, the kernel blurs it, then the overlay gets a pass
+ * of its own. Each of the two color passes reads and writes every pixel, 16 bytes per pixel
+ * on top of the blur. {@code fused} applies both while the last blur pass writes its output,
+ * adding no memory traffic.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FusedBlendBenchmark {
+
+    // What the dialogs use
+    private static final int BARRIER_COLOR = 0x33000000;
+    private static final int OVERLAY_COLOR = 0xffffffff;
+    private static final int BLEND_MODE = BlendEngine.OVERLAY;
+
+    @Param({"stack", "box"})
+    public String kernel;
+
+    @Param({"192x128", "256x448"})
+    public String size;
+
+    @Param({"separate", "fused"})
+    public String pipeline;
+
+    private final BlendEngine barrier = new BlendEngine();
+    private final BlendEngine overlay = new BlendEngine();
+    private final BlendEngine fused = new BlendEngine();
+    private BlurWorkers workers;
+    private StackBlurKernel stackKernel;
+    private BoxBlurKernel boxKernel;
+    private int[] source;
+    private int[] pixels;
+    private int width;
+    private int height;
+
+    @Setup
+    public void setUp() {
+        int separator = size.indexOf('x');
+        width = Integer.parseInt(size.substring(0, separator));
+        height = Integer.parseInt(size.substring(separator + 1));
+
+        source = new int[width * height];
+        pixels = new int[width * height];
+        Random random = new Random(42);
+        for (int i = 0; i < source.length; i++) {
+            source[i] = random.nextInt() | 0xff000000;
+        }
+
+        barrier.setColors(BARRIER_COLOR, 0, BlendEngine.NONE);
+        overlay.setOverlay(OVERLAY_COLOR, BLEND_MODE);
+        fused.setColors(BARRIER_COLOR, OVERLAY_COLOR, BLEND_MODE);
+
+        workers = new BlurWorkers(Runtime.getRuntime().availableProcessors());
+        stackKernel = new StackBlurKernel(workers);
+        boxKernel = new BoxBlurKernel(workers);
+    }
+
+    @TearDown
+    public void tearDown() {
+        stackKernel.release();
+        boxKernel.release();
+    }
+
+    @Benchmark
+    public int[] blur() {
+        System.arraycopy(source, 0, pixels, 0, source.length);
+        if ("fused".equals(pipeline)) {
+            blur(pixels, fused);
+        } else {
+            barrier.blend(pixels, 0, pixels.length);
+            blur(pixels, null);
+            overlay.blend(pixels, 0, pixels.length);
+        }
+        return pixels;
+    }
+
+    private void blur(int[] pixels, BlendEngine blend) {
+        if ("stack".equals(kernel)) {
+            stackKernel.blur(pixels, width, height, 16, blend);
+        } else {
+            boxKernel.blur(pixels, width, height, 16, blend);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.os.Debug;
+import android.view.View;
+import android.view.ViewTreeObserver;
+import android.widget.FrameLayout;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Draws a BlurView over changing content and counts what the main thread allocates
+ * once buffers are sized, see {@link BlurView#draw(Canvas)}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BlurViewAllocationTest {
+
+    private static final int ROOT_WIDTH = 360;
+    private static final int ROOT_HEIGHT = 640;
+    private static final int WARM_UP_FRAMES = 20;
+    private static final int FRAMES = 60;
+
+    private FrameLayout root;
+    private View content;
+    private BlurView blurView;
+    private Canvas canvas;
+
+    @Test
+    public void steadyStateDrawDoesNotAllocate() {
+        final long[] result = new long[2];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                setUp(InstrumentationRegistry.getInstrumentation().getTargetContext());
+                for (int i = 0; i < WARM_UP_FRAMES; i++) {
+                    drawFrame(i);
+                }
+
+                long blurCount = blurView.getBlurCount();
+                Debug.resetThreadAllocCount();
+                Debug.startAllocCounting();
+                for (int i = 0; i < FRAMES; i++) {
+                    drawFrame(i);
+                }
+                Debug.stopAllocCounting();
+                result[0] = Debug.getThreadAllocCount();
+                result[1] = blurView.getBlurCount() - blurCount;
+            }
+        });
+
+        // Content changes every frame, so every frame went through capture and blur
+        assertEquals(FRAMES, result[1]);
+        assertEquals("objects allocated in " + FRAMES + " frames", 0, result[0]);
+    }
+
+    private void setUp(Context context) {
+        root = new FrameLayout(context);
+        content = new View(context);
+        content.setBackgroundColor(Color.RED);
+        root.addView(content, new FrameLayout.LayoutParams(ROOT_WIDTH / 2, ROOT_HEIGHT));
+        blurView = new BlurView(context);
+        root.addView(blurView, new FrameLayout.LayoutParams(ROOT_WIDTH * 3 / 4, ROOT_HEIGHT / 4));
+
+        root.measure(View.MeasureSpec.makeMeasureSpec(ROOT_WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(ROOT_HEIGHT, View.MeasureSpec.EXACTLY));
+        root.layout(0, 0, ROOT_WIDTH, ROOT_HEIGHT);
+
+        blurView.setupWith(root)
+                .setBlurAlgorithm(new IirGaussianBlur())
+                .setBlurRadius(10);
+        canvas = new Canvas(Bitmap.createBitmap(blurView.getWidth(), blurView.getHeight(),
+                Bitmap.Config.ARGB_8888));
+    }
+
+    /**
+     * One frame the way the view system drives it: the pre-draw pass, then BlurView drawing
+     */
+    private void drawFrame(int frame) {
+        content.setBackgroundColor(frame % 2 == 0 ? Color.RED : Color.BLUE);
+        ViewTreeObserver observer = blurView.getViewTreeObserver();
+        observer.dispatchOnPreDraw();
+        blurView.draw(canvas);
+    }
+}
@@ -5,7 +5,6 @@ import android.content.res.TypedArray;
 import android.graphics.Canvas;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
-import android.util.Log;
 import android.view.View;
 
 import androidx.annotation.DrawableRes;
@@ -23,8 +22,6 @@ import androidx.recyclerview.widget.RecyclerView;
  */
 class ActionDividerDecoration extends RecyclerView.ItemDecoration {
 
-    private static final String TAG = "ActionSheetDividerDecor";
-
     private static final int[] ATTRS = new int[]{
             android.R.attr.listDivider
     };
@@ -100,7 +97,9 @@ class ActionDividerDecoration extends RecyclerView.ItemDecoration {
     }
 
     private void drawVertical(Canvas c, RecyclerView parent) {
-        Log.d(TAG, "drawVertical");
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.begin(CupertinoTrace.DIVIDER_DRAW);
+        }
 
         c.save();
 
@@ -122,8 +121,6 @@ class ActionDividerDecoration extends RecyclerView.ItemDecoration {
             final CupertinoDialogActionButton child = (CupertinoDialogActionButton) parent.getChildAt(i);
             final View nextChild = parent.getChildAt(i + 1);
 
-            Log.d(TAG, "child: " + i + ", isPressed: " + child.isActionDown());
-
             parent.getDecoratedBoundsWithMargins(child, mBounds);
 
             // 底部
@@ -152,10 +149,15 @@ class ActionDividerDecoration extends RecyclerView.ItemDecoration {
         }
 
         c.restore();
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.end();
+        }
     }
 
     private void drawHorizontal(Canvas c, RecyclerView parent) {
-        Log.d(TAG, "drawVertical");
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.begin(CupertinoTrace.DIVIDER_DRAW);
+        }
 
         c.save();
 
@@ -176,8 +178,6 @@ class ActionDividerDecoration extends RecyclerView.ItemDecoration {
             final CupertinoDialogActionButton child = (CupertinoDialogActionButton) parent.getChildAt(i);
             final View nextChild = parent.getChildAt(i + 1);
 
-            Log.d(TAG, "child: " + i + ", isPressed: " + child.isActionDown());
-
             parent.getDecoratedBoundsWithMargins(child, mBounds);
 
             int right;
@@ -207,6 +207,9 @@ class ActionDividerDecoration extends RecyclerView.ItemDecoration {
         }
 
         c.restore();
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.end();
+        }
     }
 
     @Override
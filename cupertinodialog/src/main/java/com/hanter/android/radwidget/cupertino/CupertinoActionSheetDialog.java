@@ -1,16 +1,26 @@
 package com.hanter.android.radwidget.cupertino;
 
+import android.animation.Animator;
+import android.animation.AnimatorListenerAdapter;
+import android.animation.ObjectAnimator;
+import android.animation.TimeInterpolator;
 import android.annotation.SuppressLint;
+import android.app.Activity;
+import android.app.Dialog;
 import android.content.Context;
 import android.graphics.Typeface;
 import android.os.Bundle;
 import android.text.TextUtils;
 import android.view.Gravity;
 import android.view.LayoutInflater;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.view.Window;
 import android.view.WindowManager;
+import android.view.animation.AccelerateDecelerateInterpolator;
+import android.view.animation.AnimationUtils;
 import android.widget.AdapterView;
 import android.widget.Button;
 import android.widget.TextView;
@@ -20,8 +30,9 @@ import androidx.annotation.Nullable;
 import androidx.fragment.app.DialogFragment;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.hanter.android.radwidget.cupertino.blur.BlurAlgorithmSelector;
+import com.hanter.android.radwidget.cupertino.blur.BlurSource;
 import com.hanter.android.radwidget.cupertino.blur.BlurView;
-import com.hanter.android.radwidget.cupertino.blur.RenderScriptBlur;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -32,6 +43,8 @@ public class CupertinoActionSheetDialog extends DialogFragment {
     private static final String ARG_MESSAGE = "message";
     private static final String ARG_ACTION_LIST = "actionList";
     private static final String ARG_CANCEL_ACTION = "cancel";
+    private static final long SLIDE_IN_DURATION = 150;
+    private static final long SLIDE_OUT_DURATION = 250;
 
     private String title;
     private String message;
@@ -40,6 +53,10 @@ public class CupertinoActionSheetDialog extends DialogFragment {
     private RecyclerView rcvActions;
     private ActionAdapter actionAdapter;
     private OnActionClickListener listener;
+    @Nullable
+    private BlurSource blurSource;
+    @Nullable
+    private Animator slideAnimator;
 
     public interface OnActionClickListener {
         void onActionClick(CupertinoActionSheetDialog dialog, int position);
@@ -94,6 +111,25 @@ public class CupertinoActionSheetDialog extends DialogFragment {
         }
     }
 
+    /**
+     * The sheet slides with a property animation rather than a window animation, the app's window
+     * isn't redrawn during a window animation, so BlurView wouldn't follow it.
+     */
+    @NonNull
+    @Override
+    public Dialog onCreateDialog(@Nullable Bundle savedInstanceState) {
+        return new SlidingDialog(requireContext(), getTheme());
+    }
+
+    @Override
+    public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
+        super.onViewCreated(view, savedInstanceState);
+        // Already shown before being recreated
+        if (savedInstanceState == null) {
+            slideIn(view);
+        }
+    }
+
     @Override
     public void onStart() {
         super.onStart();
@@ -107,8 +143,21 @@ public class CupertinoActionSheetDialog extends DialogFragment {
     @Nullable
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.begin(CupertinoTrace.DIALOG_INFLATE);
+        }
         View rootView = inflater.inflate(R.layout.dialog_action_sheet, container, false);
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.end();
+        }
+
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.begin(CupertinoTrace.DIALOG_BIND);
+        }
         initViews(rootView);
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.end();
+        }
         return rootView;
     }
 
@@ -116,9 +165,11 @@ public class CupertinoActionSheetDialog extends DialogFragment {
         if (getActivity() != null) {
             BlurView blurView = rootView.findViewById(R.id.blurView);
             ViewGroup decorView = (ViewGroup) getActivity().getWindow().getDecorView();
-            blurView.setupWith(decorView)
+            // Shared with other dialogs over the same activity, stacked dialogs blur it once
+            blurSource = BlurSource.of(decorView);
+            blurView.setupWith(blurSource)
                     .setFrameClearDrawable(decorView.getBackground())
-                    .setBlurAlgorithm(new RenderScriptBlur(getContext()))
+                    .setBlurAlgorithm(BlurAlgorithmSelector.get(getActivity()).createAlgorithm())
                     .setBlurRadius(20)
                     .setHasFixedTransformationMatrix(true);
         }
@@ -197,6 +248,105 @@ public class CupertinoActionSheetDialog extends DialogFragment {
         this.listener = listener;
     }
 
+    private void slideIn(final View content) {
+        content.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                content.getViewTreeObserver().removeOnPreDrawListener(this);
+                content.setTranslationY(content.getHeight());
+                slide(content, 0, SLIDE_IN_DURATION, AnimationUtils.loadInterpolator(content.getContext(),
+                        android.R.interpolator.decelerate_quint), null);
+                // Not drawn at its final position first
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Runs the slide in the blur source's animation mode, the root is blurred once before
+     * and BlurView only moves over it
+     */
+    private void slide(View content, float translationY, long duration, TimeInterpolator interpolator,
+                       @Nullable final Runnable endAction) {
+        if (slideAnimator != null) {
+            slideAnimator.cancel();
+        }
+        final BlurSource source = blurSource;
+        if (source != null) {
+            source.beginAnimation();
+        }
+        Animator animator = ObjectAnimator.ofFloat(content, View.TRANSLATION_Y, translationY);
+        animator.setDuration(duration);
+        animator.setInterpolator(interpolator);
+        animator.addListener(new AnimatorListenerAdapter() {
+            @Override
+            public void onAnimationEnd(Animator animation) {
+                // Also called after a cancel
+                if (slideAnimator == animation) {
+                    slideAnimator = null;
+                }
+                if (source != null) {
+                    source.endAnimation();
+                }
+                if (endAction != null) {
+                    endAction.run();
+                }
+            }
+        });
+        slideAnimator = animator;
+        animator.start();
+    }
+
+    /**
+     * Slides the sheet out before dismissing its window
+     */
+    private final class SlidingDialog extends Dialog {
+
+        private boolean slidingOut;
+
+        SlidingDialog(@NonNull Context context, int themeResId) {
+            super(context, themeResId);
+        }
+
+        @Override
+        public void dismiss() {
+            View content = getView();
+            if (content == null || !isShowing() || isHostGoingAway()) {
+                super.dismiss();
+                return;
+            }
+            if (slidingOut) {
+                return;
+            }
+            slidingOut = true;
+            slide(content, content.getHeight(), SLIDE_OUT_DURATION, new AccelerateDecelerateInterpolator(),
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            dismissNow();
+                        }
+                    });
+        }
+
+        private void dismissNow() {
+            super.dismiss();
+        }
+
+        @Override
+        public boolean dispatchTouchEvent(@NonNull MotionEvent ev) {
+            // Actions are gone once the sheet slides out, it only looks like they are still there
+            return slidingOut || super.dispatchTouchEvent(ev);
+        }
+
+        /**
+         * The window can't outlive its activity, nor wait for an animation while it's destroyed
+         */
+        private boolean isHostGoingAway() {
+            Activity activity = getActivity();
+            return activity == null || activity.isFinishing() || activity.isChangingConfigurations();
+        }
+    }
+
     static class ActionAdapter extends RecyclerView.Adapter<ActionAdapter.ViewHolder> implements
             CupertinoDialogActionButton.OnActionDownChangeListener {
 
@@ -5,7 +5,6 @@ import android.content.Context;
 import android.graphics.Typeface;
 import android.os.Bundle;
 import android.text.TextUtils;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -22,25 +21,29 @@ import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.hanter.android.radwidget.cupertino.blur.BlurAlgorithmSelector;
+import com.hanter.android.radwidget.cupertino.blur.BlurSource;
 import com.hanter.android.radwidget.cupertino.blur.BlurView;
-import com.hanter.android.radwidget.cupertino.blur.RenderScriptBlur;
 
 import java.util.ArrayList;
 import java.util.List;
 
 public class CupertinoAlertDialog extends DialogFragment {
 
-    private static final String TAG = "CupertinoAlertDialog";
-
     private static final String ARG_TITLE = "title";
     private static final String ARG_MESSAGE = "message";
     private static final String ARG_ACTION_LIST = "actionList";
+    private static final float BLUR_RADIUS = 20;
+    private static final long BLUR_FADE_IN_DURATION = 200;
 
     private String title;
     private String message;
     private RecyclerView rcvButtons;
     private List<CupertinoAlertDialogAction> actionList;
     private OnActionClickListener listener;
+    // Fades its blur in once shown
+    @Nullable
+    private BlurView fadeInBlurView;
 
     public interface OnActionClickListener {
         void onActionClick(CupertinoAlertDialog dialog, int position);
@@ -73,6 +76,10 @@ public class CupertinoAlertDialog extends DialogFragment {
             window.setLayout(WindowManager.LayoutParams.WRAP_CONTENT,
                     WindowManager.LayoutParams.WRAP_CONTENT);
         }
+        if (fadeInBlurView != null) {
+            fadeInBlurView.animateBlurRadius(BLUR_RADIUS, BLUR_FADE_IN_DURATION);
+            fadeInBlurView = null;
+        }
     }
 
     @Override
@@ -97,22 +104,38 @@ public class CupertinoAlertDialog extends DialogFragment {
     @Nullable
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.begin(CupertinoTrace.DIALOG_INFLATE);
+        }
         View rootView = inflater.inflate(R.layout.dialog_cupertino_alert, container, false);
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.end();
+        }
+
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.begin(CupertinoTrace.DIALOG_BIND);
+        }
         initViews(rootView);
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.end();
+        }
         return rootView;
     }
 
     private void initViews(View rootView) {
-        Log.d(TAG, "activity: " + getActivity());
-
         if (getActivity() != null) {
             BlurView blurView = rootView.findViewById(R.id.blurView);
             ViewGroup decorView = (ViewGroup) getActivity().getWindow().getDecorView();
-            blurView.setupWith(decorView)
+            // Shared with other dialogs over the same activity, stacked dialogs blur it once
+            BlurSource blurSource = BlurSource.of(decorView);
+            // The radius is shared too, don't fade out the backdrop another dialog already shows
+            boolean fadeIn = blurSource.getAttachedCount() == 0;
+            blurView.setupWith(blurSource)
                     .setFrameClearDrawable(decorView.getBackground())
-                    .setBlurAlgorithm(new RenderScriptBlur(getContext()))
-                    .setBlurRadius(20)
+                    .setBlurAlgorithm(BlurAlgorithmSelector.get(getActivity()).createAlgorithm())
+                    .setBlurRadius(fadeIn ? 0 : BLUR_RADIUS)
                     .setHasFixedTransformationMatrix(true);
+            fadeInBlurView = fadeIn ? blurView : null;
         }
 
         TextView tvTitle = rootView.findViewById(R.id.title);
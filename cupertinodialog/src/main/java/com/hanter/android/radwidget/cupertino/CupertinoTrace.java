@@ -0,0 +1,43 @@
+package com.hanter.android.radwidget.cupertino;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RestrictTo;
+import androidx.core.os.TraceCompat;
+
+/**
+ * Trace sections of the dialogs and the blur pipeline, visible in systrace and Perfetto captures.
+ * <p>
+ * Off unless the library is built with {@code -PcupertinoTrace=true}. Call sites check
+ * {@link #ENABLED} themselves, it's a compile time constant, so with tracing off
+ * the sections are compiled out completely.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY_GROUP)
+public final class CupertinoTrace {
+
+    public static final boolean ENABLED = BuildConfig.CUPERTINO_TRACE;
+
+    public static final String DIALOG_INFLATE = "Cupertino:inflate";
+    public static final String DIALOG_BIND = "Cupertino:bind";
+    public static final String DIVIDER_DRAW = "Cupertino:dividers";
+    public static final String BLUR_INIT = "Blur:init";
+    public static final String BLUR_ALLOCATE = "Blur:allocate";
+    public static final String BLUR_CAPTURE = "Blur:capture";
+    public static final String BLUR_BLUR = "Blur:blur";
+    public static final String BLUR_BLEND = "Blur:blend";
+    public static final String BLUR_COMPOSITE = "Blur:composite";
+    public static final String BLUR_CALIBRATE = "Blur:calibrate";
+
+    private CupertinoTrace() {
+    }
+
+    /**
+     * Sections must end on the thread they began on, in reverse order
+     */
+    public static void begin(@NonNull String section) {
+        TraceCompat.beginSection(section);
+    }
+
+    public static void end() {
+        TraceCompat.endSection();
+    }
+}
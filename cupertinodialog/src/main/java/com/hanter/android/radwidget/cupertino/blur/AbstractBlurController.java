@@ -0,0 +1,645 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+
+import androidx.annotation.ColorInt;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.hanter.android.radwidget.cupertino.CupertinoTrace;
+
+/**
+ * Decides when the blur of the attached View is updated, and draws the result.
+ * It honors View size changes, View animation and Visibility changes.
+ * <p>
+ * It uses {@link ViewTreeObserver.OnPreDrawListener} to detect when
+ * blur should be updated. The pre-draw pass starts a new frame generation,
+ * capture and blur run at most once per generation, no matter how many times
+ * BlurView is drawn in between.
+ * <p>
+ * With {@link #setSourceDrivenUpdate(boolean)} the listeners are registered on the rootView's
+ * tree instead, and the blur is only updated when the source actually invalidated.
+ * <p>
+ * Subclasses decide where the content is captured to, and how and where it gets blurred.
+ * Those which blur on the main thread build a {@link BlurMipChain} to animate the radius,
+ * the others re-blur at every radius of the animation.
+ */
+abstract class AbstractBlurController implements BlurController {
+
+    private static final boolean BLEND_BY_CANVAS = Build.VERSION.SDK_INT >= Build.VERSION_CODES.P;
+    // Stateless, shared by all controllers while their blur is suspended
+    private static final BlurAlgorithm NO_BLUR = new NoOpBlurAlgorithm();
+
+    final BlurView blurView;
+    final ViewGroup rootView;
+    final BlurCapture capture;
+    final ContentChangeDetector changeDetector = new ContentChangeDetector();
+    private final AdaptiveScale adaptiveScale = new AdaptiveScale();
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.ANTI_ALIAS_FLAG);
+
+    BlurAlgorithm blurAlgorithm;
+    // Critical memory pressure, blurAlgorithm is kept but not used
+    private boolean blurSuspended;
+    @Nullable
+    BlurMetrics metrics;
+    float blurRadius = DEFAULT_BLUR_RADIUS;
+    final BlurMipChain mipChain = new BlurMipChain(new BlurMipChain.Host() {
+        @Override
+        public void onRadiusFrame() {
+            if (!buildsMipChain()) {
+                // Margin is sized for the whole animation, see animateBlurRadius
+                blurRadius = mipChain.getRadius();
+            }
+            blurView.invalidate();
+        }
+
+        @Override
+        public void onRadiusAnimationEnd(float radius) {
+            setBlurRadius(radius);
+            blurView.invalidate();
+        }
+    });
+
+    private final ViewTreeObserver.OnPreDrawListener drawListener = new ViewTreeObserver.OnPreDrawListener() {
+        @Override
+        public boolean onPreDraw() {
+            // Not invalidating a View here, just updating the Bitmap.
+            // This relies on the HW accelerated bitmap drawing behavior in Android
+            // If the bitmap was drawn on HW accelerated canvas, it holds a reference to it and on next
+            // drawing pass the updated content of the bitmap will be rendered on the screen
+
+            frameGeneration++;
+            updateBlur();
+            return true;
+        }
+    };
+
+    private final ViewTreeObserver.OnPreDrawListener sourceDrawListener = new ViewTreeObserver.OnPreDrawListener() {
+        @Override
+        public boolean onPreDraw() {
+            sourceInvalidated = true;
+            frameGeneration++;
+
+            long count = blurCount;
+            updateBlur();
+            // BlurView's window doesn't redraw by itself, make it pick up the new bitmap
+            if (blurCount != count) {
+                blurView.invalidate();
+            }
+            return true;
+        }
+    };
+
+    private final ViewTreeObserver.OnScrollChangedListener sourceScrollListener = new ViewTreeObserver.OnScrollChangedListener() {
+        @Override
+        public void onScrollChanged() {
+            sourceInvalidated = true;
+        }
+    };
+
+    private final ViewTreeObserver.OnGlobalLayoutListener sourceLayoutListener = new ViewTreeObserver.OnGlobalLayoutListener() {
+        @Override
+        public void onGlobalLayout() {
+            sourceInvalidated = true;
+        }
+    };
+
+    boolean blurEnabled = false;
+    private boolean blurAutoUpdate = false;
+    private long frameGeneration;
+    private long blurredGeneration = -1;
+    long blurCount;
+    private boolean sourceDrivenUpdate;
+    private boolean sourceInvalidated = true;
+    private int initWidth;
+    private int initHeight;
+    private int initMargin;
+    private float initScaleFactor;
+
+    /**
+     * @param blurView View which will draw it's blurred underlying content
+     * @param rootView Root View where blurView's underlying content starts drawing.
+     *                 Can be Activity's root content layout (android.R.id.content)
+     *                 or some of your custom root layouts.
+     */
+    AbstractBlurController(@NonNull BlurView blurView, @NonNull ViewGroup rootView) {
+        this.rootView = rootView;
+        this.blurView = blurView;
+        this.blurAlgorithm = new NoOpBlurAlgorithm();
+        this.capture = new BlurCapture(blurView, rootView);
+        BlurMemoryGovernor.register(blurView.getContext());
+    }
+
+    /**
+     * Must be called at the end of the subclass constructor, once its own fields are initialized
+     */
+    final void start() {
+        int measuredWidth = blurView.getMeasuredWidth();
+        int measuredHeight = blurView.getMeasuredHeight();
+
+        if (capture.isZeroSized(measuredWidth, measuredHeight)) {
+            deferBitmapCreation();
+            return;
+        }
+
+        init(measuredWidth, measuredHeight);
+    }
+
+    /**
+     * (Re)allocates capture and result buffers, {@link #capture} already has the new size
+     */
+    abstract void allocateBuffers();
+
+    /**
+     * Captures the content and blurs it, or schedules it to be blurred.
+     * Increments {@link #blurCount} whenever a blurred result becomes visible,
+     * and reports the time of every blur that ran to {@link #onBlurTimed(long)}.
+     */
+    abstract void captureAndBlur();
+
+    /**
+     * @return bitmap with the latest blurred content, null if there is none yet
+     */
+    @Nullable
+    abstract Bitmap getBlurredBitmap();
+
+    /**
+     * @return true if the canvas is the one content is currently captured with
+     */
+    abstract boolean isCaptureCanvas(Canvas canvas);
+
+    /**
+     * Frees buffers and the blur algorithm
+     */
+    abstract void releaseBuffers();
+
+    /**
+     * @return true if {@link #captureAndBlur()} builds the levels of a running radius animation
+     */
+    boolean buildsMipChain() {
+        return false;
+    }
+
+    void init(int measuredWidth, int measuredHeight) {
+        float scaleFactor = getTargetScaleFactor();
+        int margin = BlurCapture.marginFor(getMarginRadius(scaleFactor));
+        if (initWidth == measuredWidth && initHeight == measuredHeight
+                && initMargin == margin && initScaleFactor == scaleFactor) {
+            return;
+        }
+
+        initWidth = measuredWidth;
+        initHeight = measuredHeight;
+        initMargin = margin;
+        initScaleFactor = scaleFactor;
+        capture.setScaleFactor(scaleFactor);
+
+        if (capture.isZeroSized(measuredWidth, measuredHeight)) {
+            blurEnabled = false;
+            blurView.setWillNotDraw(true);
+            setBlurAutoUpdateInternal(false);
+            return;
+        }
+
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.begin(CupertinoTrace.BLUR_INIT);
+        }
+        blurEnabled = true;
+        blurView.setWillNotDraw(false);
+        capture.setSize(measuredWidth, measuredHeight, margin);
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.begin(CupertinoTrace.BLUR_ALLOCATE);
+        }
+        allocateBuffers();
+        mipChain.releaseLevels();
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.end();
+        }
+        if (metrics != null) {
+            metrics.recordReallocation(capture.getBitmapWidth(), capture.getBitmapHeight());
+        }
+        // New bitmap is empty, it has to be filled even if this frame was already blurred
+        blurredGeneration = -1;
+        sourceInvalidated = true;
+        changeDetector.reset();
+        setBlurAutoUpdateInternal(true);
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.end();
+        }
+    }
+
+    final void updateBlur() {
+        if (!blurEnabled) {
+            return;
+        }
+        applyMemoryPressure();
+        // Adaptive scale or memory pressure moved to another level, reallocate before capturing into the old size
+        if (getTargetScaleFactor() != initScaleFactor) {
+            init(initWidth, initHeight);
+        }
+
+        // Already captured and blurred for this frame
+        if (blurredGeneration == frameGeneration) {
+            return;
+        }
+        // Source didn't change, keep the blurred bitmap frozen
+        if (sourceDrivenUpdate && blurAutoUpdate && !sourceInvalidated) {
+            return;
+        }
+        // Levels of the running radius animation are drawn as they are
+        if (mipChain.hasLevels()) {
+            return;
+        }
+        blurredGeneration = frameGeneration;
+        sourceInvalidated = false;
+
+        if (metrics != null) {
+            metrics.recordFrame();
+        }
+        captureAndBlur();
+    }
+
+    /**
+     * Feeds the adaptive scale, only with frames that were actually blurred
+     *
+     * @param nanos capture and blur time of the frame, wherever the blur ran
+     */
+    final void onBlurTimed(long nanos) {
+        // Capture alone says nothing about what blurring costs
+        if (!blurSuspended) {
+            adaptiveScale.onFrame(nanos);
+        }
+    }
+
+    private float getTargetScaleFactor() {
+        return Math.max(adaptiveScale.getScaleFactor(), BlurMemoryGovernor.getMinScaleFactor());
+    }
+
+    /**
+     * Under critical memory pressure blurring stops and the heavily downscaled capture is shown as it is.
+     * The algorithm is kept and takes over again once the pressure goes down.
+     */
+    private void applyMemoryPressure() {
+        boolean suspend = BlurMemoryGovernor.updatePressure() == BlurMemoryGovernor.PRESSURE_CRITICAL;
+        if (suspend == blurSuspended) {
+            return;
+        }
+        blurSuspended = suspend;
+        if (suspend) {
+            // Their buffers grow back on the next blur, other algorithms can't be used after destroy()
+            if (blurAlgorithm instanceof CpuBlurAlgorithm) {
+                destroyAlgorithm(blurAlgorithm);
+            }
+        } else {
+            // Same capture and parameters as the unblurred frame, which the detector would skip
+            changeDetector.reset();
+            sourceInvalidated = true;
+            blurredGeneration = -1;
+        }
+    }
+
+    /**
+     * @return algorithm to blur the next frame with, a no-op one while blurring is suspended
+     */
+    @NonNull
+    BlurAlgorithm getActiveAlgorithm() {
+        return blurSuspended ? NO_BLUR : blurAlgorithm;
+    }
+
+    /**
+     * Destroys an algorithm which is not used anymore, once it's safe to
+     */
+    void destroyAlgorithm(@NonNull BlurAlgorithm algorithm) {
+        algorithm.destroy();
+    }
+
+    /**
+     * @return blur radius in bitmap pixels, so the blur looks the same on screen whatever the scale factor is
+     */
+    float getEffectiveRadius() {
+        return getEffectiveRadius(capture.getScaleFactor());
+    }
+
+    private float getEffectiveRadius(float scaleFactor) {
+        return blurRadius * DEFAULT_SCALE_FACTOR / scaleFactor;
+    }
+
+    /**
+     * @return radius in bitmap pixels the margin is sized for, the largest one of a running radius animation
+     */
+    private float getMarginRadius(float scaleFactor) {
+        float radius = mipChain.isAnimating() ? Math.max(blurRadius, mipChain.getTopRadius()) : blurRadius;
+        return radius * DEFAULT_SCALE_FACTOR / scaleFactor;
+    }
+
+    /**
+     * Reallocates if the radius needs another margin around the captured area
+     */
+    private void updateMargin() {
+        if (blurEnabled && BlurCapture.marginFor(getMarginRadius(capture.getScaleFactor())) != initMargin) {
+            init(initWidth, initHeight);
+        }
+    }
+
+    long blurParamsHash() {
+        long hash = Float.floatToIntBits(getEffectiveRadius());
+        // Not part of the capture when the algorithm applies it
+        hash = hash * 31 + blurView.barrierColor;
+        hash = hash * 31 + blurView.overlayColor;
+        hash = hash * 31 + blurView.overlayBlendMode;
+        return hash;
+    }
+
+    /**
+     * Deferring initialization until view is laid out
+     */
+    private void deferBitmapCreation() {
+        blurView.getViewTreeObserver().addOnGlobalLayoutListener(new ViewTreeObserver.OnGlobalLayoutListener() {
+            @Override
+            public void onGlobalLayout() {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                    blurView.getViewTreeObserver().removeOnGlobalLayoutListener(this);
+                } else {
+                    blurView.getViewTreeObserver().removeGlobalOnLayoutListener(this);
+                }
+
+                init(blurView.getMeasuredWidth(), blurView.getMeasuredHeight());
+            }
+        });
+    }
+
+    @Override
+    public boolean draw(Canvas canvas) {
+        if (!blurEnabled) {
+            return true;
+        }
+        // Not blurring own children
+        if (isCaptureCanvas(canvas)) {
+            return false;
+        }
+
+        // Without pre-draw updates every draw is a frame of its own
+        if (!blurAutoUpdate) {
+            frameGeneration++;
+        }
+        updateBlur();
+
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.begin(CupertinoTrace.BLUR_COMPOSITE);
+        }
+        long start = metrics != null ? System.nanoTime() : 0;
+        Bitmap blurredBitmap = getBlurredBitmap();
+        float opacity = 1f;
+        if (blurredBitmap != null) {
+            if (mipChain.hasLevels()) {
+                opacity = drawMipChain(canvas, blurredBitmap);
+            } else {
+                canvas.drawBitmap(blurredBitmap, capture.getBitmapRect(), blurView.rectF, paint);
+            }
+        }
+
+        if (useCanvasBlend() && blurView.getPorterDuffMode() != null) {
+            canvas.drawColor(BlurMipChain.fade(blurView.overlayColor, opacity), blurView.getPorterDuffMode());
+            if (metrics != null) {
+                metrics.recordTintPassBytes(8L * blurView.getWidth() * blurView.getHeight());
+            }
+        }
+        if (metrics != null) {
+            metrics.recordStage(BlurMetrics.STAGE_COMPOSITE, System.nanoTime() - start);
+        }
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.end();
+        }
+
+        return true;
+    }
+
+    /**
+     * @return opacity the blur was drawn with
+     */
+    private float drawMipChain(Canvas canvas, Bitmap blurredBitmap) {
+        Rect src = capture.getBitmapRect();
+        RectF dst = blurView.rectF;
+        float scaleX = dst.width() / src.width();
+        float scaleY = dst.height() / src.height();
+        int saveCount = canvas.save();
+        canvas.clipRect(dst);
+        canvas.translate(dst.left - src.left * scaleX, dst.top - src.top * scaleY);
+        canvas.scale(scaleX, scaleY);
+        float opacity = mipChain.draw(canvas, blurredBitmap, paint);
+        canvas.restoreToCount(saveCount);
+        return opacity;
+    }
+
+    boolean useCanvasBlend() {
+        return !(getActiveAlgorithm() instanceof FusedBlurAlgorithm) && canBlendOnCanvas(blurView.overlayBlendMode);
+    }
+
+    /**
+     * @return true if a hardware canvas supports the blend mode on this API level
+     */
+    static boolean canBlendOnCanvas(int blendMode) {
+        return BLEND_BY_CANVAS || (blendMode != BlurView.LIGHTEN
+                && blendMode != BlurView.DARKEN
+                && blendMode != BlurView.OVERLAY);
+    }
+
+    /**
+     * @return color to draw over the capture, transparent if the algorithm applies it itself
+     */
+    @ColorInt
+    int getCaptureBarrierColor() {
+        return getActiveAlgorithm() instanceof FusedBlurAlgorithm ? Color.TRANSPARENT : blurView.barrierColor;
+    }
+
+    /**
+     * @return barrier color the algorithm applies itself, transparent if it's drawn over the capture
+     */
+    @ColorInt
+    int getAlgorithmBarrierColor() {
+        return getActiveAlgorithm() instanceof FusedBlurAlgorithm ? blurView.barrierColor : Color.TRANSPARENT;
+    }
+
+    /**
+     * Records the pass over the capture which drew the barrier color, if there was one
+     */
+    void recordCaptureTint(@NonNull Bitmap bitmap, @ColorInt int barrierColor) {
+        if (metrics != null && barrierColor != Color.TRANSPARENT) {
+            metrics.recordTintPassBytes(2L * bitmap.getByteCount());
+        }
+    }
+
+    /**
+     * Blurs with whatever part of the barrier and overlay the algorithm can apply itself
+     *
+     * @param barrierColor barrier color not drawn over the capture, transparent for none
+     * @param blendMode    blend mode of the overlay, {@link BlurView#NONE} if it's blended on the canvas
+     */
+    static Bitmap blur(@NonNull BlurAlgorithm algorithm, Bitmap bitmap, float radius,
+                       @ColorInt int barrierColor, @ColorInt int overlayColor, int blendMode) {
+        if (algorithm instanceof FusedBlurAlgorithm) {
+            return ((FusedBlurAlgorithm) algorithm).blur(bitmap, radius, barrierColor, overlayColor, blendMode);
+        }
+        return blendMode == BlurView.NONE
+                ? algorithm.blur(bitmap, radius)
+                : algorithm.blur(bitmap, radius, overlayColor, blendMode);
+    }
+
+    @Override
+    public long getBlurCount() {
+        return blurCount;
+    }
+
+    @Override
+    public long getUnchangedFrameCount() {
+        return changeDetector.getUnchangedCount();
+    }
+
+    @Override
+    public long getChangedFrameCount() {
+        return changeDetector.getChangedCount();
+    }
+
+    @Override
+    public void updateBlurViewSize() {
+        init(blurView.getMeasuredWidth(), blurView.getMeasuredHeight());
+    }
+
+    @Override
+    public void destroy() {
+        mipChain.cancel();
+        setBlurAutoUpdateInternal(false);
+        releaseBuffers();
+    }
+
+    @Override
+    public BlurViewFacade setBlurRadius(float radius) {
+        this.blurRadius = radius;
+        updateMargin();
+        return this;
+    }
+
+    @Override
+    public BlurViewFacade animateBlurRadius(float radius, long durationMs) {
+        float from = mipChain.isAnimating() ? mipChain.getRadius() : blurRadius;
+        mipChain.animate(from, radius, durationMs);
+        if (buildsMipChain()) {
+            // Blurred with the next capture
+            setBlurRadius(mipChain.getTopRadius());
+            blurredGeneration = -1;
+            sourceInvalidated = true;
+        } else {
+            // Once for the largest radius, reallocating during the animation would drop blurs in flight
+            updateMargin();
+        }
+        return this;
+    }
+
+    @Override
+    public BlurViewFacade setAdaptiveScale(float frameBudgetMs) {
+        adaptiveScale.setBudget((long) (frameBudgetMs * 1000000));
+        return this;
+    }
+
+    @Override
+    public BlurViewFacade setBlurAlgorithm(BlurAlgorithm algorithm) {
+        this.blurAlgorithm = algorithm;
+        if (algorithm instanceof MetricsAware) {
+            ((MetricsAware) algorithm).setBlurMetrics(metrics);
+        }
+        return this;
+    }
+
+    @Override
+    public BlurViewFacade setBlurMetrics(@Nullable BlurMetrics metrics) {
+        this.metrics = metrics;
+        if (blurAlgorithm instanceof MetricsAware) {
+            ((MetricsAware) blurAlgorithm).setBlurMetrics(metrics);
+        }
+        return this;
+    }
+
+    @Override
+    public BlurViewFacade setFrameClearDrawable(@Nullable Drawable frameClearDrawable) {
+        capture.setFrameClearDrawable(frameClearDrawable);
+        return this;
+    }
+
+    void setBlurEnabledInternal(boolean enabled) {
+        this.blurEnabled = enabled;
+        setBlurAutoUpdateInternal(enabled);
+        blurView.invalidate();
+    }
+
+    @Override
+    public BlurViewFacade setBlurEnabled(final boolean enabled) {
+        blurView.post(new Runnable() {
+            @Override
+            public void run() {
+                setBlurEnabledInternal(enabled);
+            }
+        });
+        return this;
+    }
+
+    void setBlurAutoUpdateInternal(boolean enabled) {
+        blurAutoUpdate = enabled;
+        blurView.getViewTreeObserver().removeOnPreDrawListener(drawListener);
+
+        ViewTreeObserver sourceObserver = rootView.getViewTreeObserver();
+        sourceObserver.removeOnPreDrawListener(sourceDrawListener);
+        sourceObserver.removeOnScrollChangedListener(sourceScrollListener);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            sourceObserver.removeOnGlobalLayoutListener(sourceLayoutListener);
+        } else {
+            sourceObserver.removeGlobalOnLayoutListener(sourceLayoutListener);
+        }
+
+        if (!enabled) {
+            return;
+        }
+
+        if (sourceDrivenUpdate) {
+            sourceObserver.addOnPreDrawListener(sourceDrawListener);
+            sourceObserver.addOnScrollChangedListener(sourceScrollListener);
+            sourceObserver.addOnGlobalLayoutListener(sourceLayoutListener);
+        } else {
+            blurView.getViewTreeObserver().addOnPreDrawListener(drawListener);
+        }
+    }
+
+    public BlurViewFacade setBlurAutoUpdate(final boolean enabled) {
+        blurView.post(new Runnable() {
+            @Override
+            public void run() {
+                setBlurAutoUpdateInternal(enabled);
+            }
+        });
+        return this;
+    }
+
+    @Override
+    public BlurViewFacade setSourceDrivenUpdate(boolean enabled) {
+        this.sourceDrivenUpdate = enabled;
+        this.sourceInvalidated = true;
+        if (blurAutoUpdate) {
+            setBlurAutoUpdateInternal(true);
+        }
+        return this;
+    }
+
+    @Override
+    public BlurViewFacade setHasFixedTransformationMatrix(boolean hasFixedTransformationMatrix) {
+        capture.setHasFixedTransformationMatrix(hasFixedTransformationMatrix);
+        return this;
+    }
+}
@@ -0,0 +1,93 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+/**
+ * Picks the downscale factor from the measured capture and blur time.
+ * <p>
+ * Frame times are smoothed with an exponential moving average. The factor gets coarser
+ * once the average stays over the budget for a few frames, and finer only after it stayed
+ * well below it for about a second, so the level doesn't flip back and forth.
+ */
+final class AdaptiveScale {
+
+    private static final float[] LEVELS = {4f, 6f, 8f, 12f, 16f};
+    // BlurController.DEFAULT_SCALE_FACTOR
+    private static final int DEFAULT_LEVEL = 2;
+
+    // Finer level costs about twice as much, so stepping down needs room for it
+    private static final float DOWN_THRESHOLD = 0.45f;
+    private static final int UP_FRAMES = 4;
+    private static final int DOWN_FRAMES = 60;
+    private static final float SMOOTHING = 0.125f;
+
+    private long budgetNanos;
+    private int level = DEFAULT_LEVEL;
+    private float averageNanos = -1;
+    private int overBudgetFrames;
+    private int underBudgetFrames;
+
+    /**
+     * @param budgetNanos capture and blur time to fit in, 0 disables adaptation and goes back to the default level
+     */
+    void setBudget(long budgetNanos) {
+        this.budgetNanos = budgetNanos;
+        if (budgetNanos <= 0) {
+            level = DEFAULT_LEVEL;
+        }
+        resetAverage();
+    }
+
+    boolean isEnabled() {
+        return budgetNanos > 0;
+    }
+
+    float getScaleFactor() {
+        return LEVELS[level];
+    }
+
+    /**
+     * @return finest scale factor adaptation can go to
+     */
+    static float getFinestScaleFactor() {
+        return LEVELS[0];
+    }
+
+    /**
+     * @return true if the frame moved the scale factor to another level
+     */
+    boolean onFrame(long nanos) {
+        if (budgetNanos <= 0) {
+            return false;
+        }
+
+        averageNanos = averageNanos < 0 ? nanos : averageNanos + (nanos - averageNanos) * SMOOTHING;
+
+        if (averageNanos > budgetNanos) {
+            underBudgetFrames = 0;
+            if (++overBudgetFrames >= UP_FRAMES && level < LEVELS.length - 1) {
+                level++;
+                resetAverage();
+                return true;
+            }
+        } else if (averageNanos < budgetNanos * DOWN_THRESHOLD) {
+            overBudgetFrames = 0;
+            if (++underBudgetFrames >= DOWN_FRAMES && level > 0) {
+                level--;
+                resetAverage();
+                return true;
+            }
+        } else {
+            overBudgetFrames = 0;
+            underBudgetFrames = 0;
+        }
+        return false;
+    }
+
+    /**
+     * Times measured at another level say little about this one
+     */
+    private void resetAverage() {
+        averageNanos = -1;
+        overBudgetFrames = 0;
+        underBudgetFrames = 0;
+    }
+}
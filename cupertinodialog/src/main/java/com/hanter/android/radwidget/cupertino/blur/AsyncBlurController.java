@@ -0,0 +1,262 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.hanter.android.radwidget.cupertino.CupertinoTrace;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Blur Controller that captures the view hierarchy on the main thread and blurs it on a background thread.
+ * <p>
+ * Works with three bitmaps: the main thread captures into one, the worker blurs another,
+ * and BlurView keeps drawing the last completed one meanwhile. Bitmaps change hands through
+ * an atomic reference and a flag, the main thread never waits for the worker.
+ * <p>
+ * Only one blur is in flight at a time, frames captured meanwhile are dropped in favour
+ * of the next one. Results captured before a size change are discarded.
+ * The shown blur lags behind the content by the time the worker takes, usually a frame.
+ */
+final class AsyncBlurController extends AbstractBlurController {
+
+    private static final ExecutorService BLUR_EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            Thread thread = new Thread(r, "AsyncBlur");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final class Frame {
+        final int sizeEpoch;
+        Bitmap bitmap;
+        @Nullable
+        Canvas canvas;
+        // Written on the main thread before the handoff, by the worker before it hands the frame back
+        long captureNanos;
+        long blurNanos;
+
+        Frame(int sizeEpoch, Bitmap bitmap) {
+            this.sizeEpoch = sizeEpoch;
+            this.bitmap = bitmap;
+        }
+    }
+
+    private final Executor executor;
+
+    // Owned by the main thread
+    private Frame captureFrame;
+    @Nullable
+    private Frame frontFrame;
+    @Nullable
+    private Frame spareFrame;
+    private int sizeEpoch;
+
+    // Handoff between the main thread and the worker
+    private final AtomicReference<Frame> completedFrame = new AtomicReference<>();
+    private final AtomicBoolean blurInFlight = new AtomicBoolean();
+    private volatile boolean destroyed;
+
+    /**
+     * @param blurView View which will draw it's blurred underlying content
+     * @param rootView Root View where blurView's underlying content starts drawing.
+     *                 Can be Activity's root content layout (android.R.id.content)
+     *                 or some of your custom root layouts.
+     */
+    AsyncBlurController(@NonNull BlurView blurView, @NonNull ViewGroup rootView) {
+        super(blurView, rootView);
+        this.executor = BLUR_EXECUTOR;
+        start();
+    }
+
+    @Override
+    void allocateBuffers() {
+        // Whatever the worker returns from now on has the old size
+        sizeEpoch++;
+        release(captureFrame);
+        release(spareFrame);
+        release(frontFrame);
+        Bitmap.Config config = blurAlgorithm.getSupportedBitmapConfig();
+        captureFrame = new Frame(sizeEpoch, capture.createBitmap(config));
+        spareFrame = new Frame(sizeEpoch, capture.createBitmap(config));
+        frontFrame = null;
+    }
+
+    @Override
+    void captureAndBlur() {
+        collectCompletedFrame();
+        if (blurInFlight.get() || spareFrame == null) {
+            // Worker is busy, next frame will be captured once it's done
+            if (metrics != null) {
+                metrics.recordSkippedFrame();
+            }
+            return;
+        }
+
+        Frame frame = captureFrame;
+        if (frame.canvas == null) {
+            frame.canvas = capture.createCanvas(frame.bitmap);
+        }
+        long start = System.nanoTime();
+        int barrierColor = getCaptureBarrierColor();
+        capture.capture(frame.bitmap, frame.canvas, barrierColor);
+        frame.captureNanos = System.nanoTime() - start;
+        if (metrics != null) {
+            metrics.recordStage(BlurMetrics.STAGE_CAPTURE, frame.captureNanos);
+        }
+        recordCaptureTint(frame.bitmap, barrierColor);
+
+        if (frontFrame != null && !changeDetector.hasChanged(frame.bitmap, blurParamsHash())) {
+            if (metrics != null) {
+                metrics.recordSkippedFrame();
+            }
+            return;
+        }
+
+        captureFrame = spareFrame;
+        spareFrame = null;
+        blurInFlight.set(true);
+
+        boolean canvasBlend = useCanvasBlend();
+        executor.execute(new BlurTask(frame, getActiveAlgorithm(), metrics, getEffectiveRadius(),
+                getAlgorithmBarrierColor(),
+                canvasBlend ? 0 : blurView.overlayColor,
+                canvasBlend ? BlurView.NONE : blurView.overlayBlendMode));
+    }
+
+    /**
+     * Moves a frame blurred by the worker to the front
+     */
+    private void collectCompletedFrame() {
+        Frame frame = completedFrame.getAndSet(null);
+        if (frame == null) {
+            return;
+        }
+
+        if (frame.sizeEpoch != sizeEpoch) {
+            release(frame);
+            return;
+        }
+
+        spareFrame = frontFrame != null ? frontFrame : new Frame(sizeEpoch,
+                capture.createBitmap(frame.bitmap.getConfig()));
+        frontFrame = frame;
+        blurCount++;
+        // Time the worker measured, frames dropped while it was busy cost nothing
+        onBlurTimed(frame.captureNanos + frame.blurNanos);
+    }
+
+    @Nullable
+    @Override
+    Bitmap getBlurredBitmap() {
+        collectCompletedFrame();
+        return frontFrame != null ? frontFrame.bitmap : null;
+    }
+
+    @Override
+    boolean isCaptureCanvas(Canvas canvas) {
+        return captureFrame != null && canvas == captureFrame.canvas;
+    }
+
+    @Override
+    void releaseBuffers() {
+        destroyed = true;
+
+        destroyAlgorithm(blurAlgorithm);
+
+        release(captureFrame);
+        release(frontFrame);
+        release(spareFrame);
+        release(completedFrame.getAndSet(null));
+        captureFrame = null;
+        frontFrame = null;
+        spareFrame = null;
+    }
+
+    @Override
+    void destroyAlgorithm(@NonNull final BlurAlgorithm algorithm) {
+        // Queued behind the blur in flight, if any
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                algorithm.destroy();
+            }
+        });
+    }
+
+    private static void release(@Nullable Frame frame) {
+        if (frame != null) {
+            BlurCapture.releaseBitmap(frame.bitmap);
+        }
+    }
+
+    private final class BlurTask implements Runnable {
+        private final Frame frame;
+        private final BlurAlgorithm algorithm;
+        @Nullable
+        private final BlurMetrics metrics;
+        private final float radius;
+        private final int barrierColor;
+        private final int overlayColor;
+        private final int blendMode;
+
+        BlurTask(Frame frame, BlurAlgorithm algorithm, @Nullable BlurMetrics metrics,
+                 float radius, int barrierColor, int overlayColor, int blendMode) {
+            this.frame = frame;
+            this.algorithm = algorithm;
+            this.metrics = metrics;
+            this.radius = radius;
+            this.barrierColor = barrierColor;
+            this.overlayColor = overlayColor;
+            this.blendMode = blendMode;
+        }
+
+        @Override
+        public void run() {
+            if (destroyed) {
+                release(frame);
+                blurInFlight.set(false);
+                return;
+            }
+
+            if (CupertinoTrace.ENABLED) {
+                CupertinoTrace.begin(CupertinoTrace.BLUR_BLUR);
+            }
+            long start = System.nanoTime();
+            try {
+                Bitmap blurred = blur(algorithm, frame.bitmap, radius, barrierColor, overlayColor, blendMode);
+                if (blurred != frame.bitmap) {
+                    frame.bitmap = blurred;
+                    frame.canvas = null;
+                }
+                frame.blurNanos = System.nanoTime() - start;
+                if (metrics != null) {
+                    metrics.recordStage(BlurMetrics.STAGE_BLUR, frame.blurNanos);
+                }
+            } finally {
+                completedFrame.set(frame);
+                // releaseBuffers() may have run during the blur and missed the frame,
+                // whoever takes it back out of the reference releases it
+                if (destroyed && completedFrame.compareAndSet(frame, null)) {
+                    release(frame);
+                }
+                blurInFlight.set(false);
+                blurView.postInvalidate();
+                if (CupertinoTrace.ENABLED) {
+                    CupertinoTrace.end();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+
+import java.nio.IntBuffer;
+
+/**
+ * Applies {@link BlendEngine} to a bitmap, for blur algorithms which don't hold the pixels themselves.
+ * The pixel array is kept between calls.
+ */
+final class BitmapBlend {
+
+    private final BlendEngine engine = new BlendEngine();
+    private int[] pixels = new int[0];
+    private IntBuffer pixelBuffer = IntBuffer.wrap(pixels);
+
+    /**
+     * Blends the overlay color over the bitmap in place
+     *
+     * @return bytes copied between the bitmap and the pixel array
+     */
+    long blend(@NonNull Bitmap bitmap, int overlayColor, int blendMode) {
+        return blend(bitmap, 0, overlayColor, blendMode);
+    }
+
+    /**
+     * Draws the barrier color over the bitmap, then blends the overlay color, in one pass
+     *
+     * @return bytes copied between the bitmap and the pixel array
+     */
+    long blend(@NonNull Bitmap bitmap, int barrierColor, int overlayColor, int blendMode) {
+        engine.setColors(barrierColor, overlayColor, blendMode);
+        if (engine.isIdentity()) {
+            return 0;
+        }
+
+        int size = bitmap.getWidth() * bitmap.getHeight();
+        if (pixels.length < size) {
+            pixels = new int[size];
+            pixelBuffer = IntBuffer.wrap(pixels);
+        }
+
+        pixelBuffer.rewind();
+        bitmap.copyPixelsToBuffer(pixelBuffer);
+        engine.blend(pixels, 0, size);
+        pixelBuffer.rewind();
+        bitmap.copyPixelsFromBuffer(pixelBuffer);
+        return 2L * bitmap.getByteCount();
+    }
+
+    long getBufferBytes() {
+        return 4L * pixels.length;
+    }
+
+    void release() {
+        pixels = new int[0];
+        pixelBuffer = IntBuffer.wrap(pixels);
+    }
+}
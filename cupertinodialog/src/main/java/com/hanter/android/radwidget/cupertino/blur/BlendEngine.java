@@ -0,0 +1,263 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+/**
+ * Blends a solid overlay color over premultiplied pixels with integer math, for every BlurView blend mode.
+ * Optionally a barrier color is drawn over the pixels first (source over), as BlurView's barrier
+ * is drawn over the capture.
+ * <p>
+ * Pixels are packed the way an ARGB_8888 bitmap lies in memory read as little-endian ints:
+ * red in the lowest byte, alpha in the highest. Blending follows the premultiplied formulas
+ * Skia uses for {@link android.graphics.PorterDuff.Mode}, so the result matches drawing the color
+ * on a canvas with that mode.
+ * <p>
+ * For opaque pixels, which captures mostly consist of, each output channel only depends on the same
+ * input channel. These are looked up in 256 entry tables built once per overlay color and mode.
+ * Translucent pixels are blended arithmetically. The tables compose the barrier and the overlay,
+ * so both cost a single lookup per channel.
+ * <p>
+ * Has no Android dependencies, so it can be benchmarked on a plain JVM.
+ */
+final class BlendEngine {
+
+    // Same values as the BlurView blend mode constants
+    static final int NONE = -1;
+    static final int CLEAR = 0;
+    static final int SRC = 1;
+    static final int DST = 2;
+    static final int SRC_OVER = 3;
+    static final int DST_OVER = 4;
+    static final int SRC_IN = 5;
+    static final int DST_IN = 6;
+    static final int SRC_OUT = 7;
+    static final int DST_OUT = 8;
+    static final int SRC_ATOP = 9;
+    static final int DST_ATOP = 10;
+    static final int XOR = 11;
+    static final int ADD = 12;
+    static final int MULTIPLY = 13;
+    static final int SCREEN = 14;
+    static final int OVERLAY = 15;
+    static final int DARKEN = 16;
+    static final int LIGHTEN = 17;
+
+    // Already shifted into place, the alpha of opaque pixels is folded into the red table
+    private final int[] lutR = new int[256];
+    private final int[] lutG = new int[256];
+    private final int[] lutB = new int[256];
+
+    private int mode = NONE;
+    private int color;
+    private int barrierColor;
+    // Premultiplied barrier, channels 0..255
+    private int ba;
+    private int br;
+    private int bg;
+    private int bb;
+    // Premultiplied overlay, channels 0..255
+    private int sa;
+    private int sr;
+    private int sg;
+    private int sb;
+
+    /**
+     * @param color straight (not premultiplied) ARGB overlay color, as used by Android
+     * @param mode  one of the BlurView blend modes
+     */
+    void setOverlay(int color, int mode) {
+        setColors(0, color, mode);
+    }
+
+    /**
+     * @param barrierColor straight ARGB color drawn over the pixels before the overlay is blended
+     * @param color        straight ARGB overlay color
+     * @param mode         one of the BlurView blend modes
+     */
+    void setColors(int barrierColor, int color, int mode) {
+        if (barrierColor == this.barrierColor && color == this.color && mode == this.mode) {
+            return;
+        }
+        this.barrierColor = barrierColor;
+        this.color = color;
+        this.mode = mode;
+
+        ba = barrierColor >>> 24;
+        br = div255(((barrierColor >> 16) & 0xff) * ba);
+        bg = div255(((barrierColor >> 8) & 0xff) * ba);
+        bb = div255((barrierColor & 0xff) * ba);
+
+        sa = color >>> 24;
+        sr = div255(((color >> 16) & 0xff) * sa);
+        sg = div255(((color >> 8) & 0xff) * sa);
+        sb = div255((color & 0xff) * sa);
+
+        if (isIdentity()) {
+            return;
+        }
+        // The barrier keeps opaque pixels opaque
+        int outAlpha = blendAlpha(mode, sa, 255);
+        for (int d = 0; d < 256; d++) {
+            int inverse = d * (255 - ba);
+            lutR[d] = Math.min(blendChannel(mode, sr, sa, br + div255(inverse), 255), outAlpha) | outAlpha << 24;
+            lutG[d] = Math.min(blendChannel(mode, sg, sa, bg + div255(inverse), 255), outAlpha) << 8;
+            lutB[d] = Math.min(blendChannel(mode, sb, sa, bb + div255(inverse), 255), outAlpha) << 16;
+        }
+    }
+
+    boolean isIdentity() {
+        return ba == 0 && (mode == NONE || mode == DST);
+    }
+
+    /**
+     * Blends the overlay over pixels [from, to)
+     */
+    void blend(int[] pixels, int from, int to) {
+        if (isIdentity()) {
+            return;
+        }
+        final int[] lutR = this.lutR;
+        final int[] lutG = this.lutG;
+        final int[] lutB = this.lutB;
+        for (int i = from; i < to; i++) {
+            int p = pixels[i];
+            if (p >>> 24 == 255) {
+                pixels[i] = lutR[p & 0xff] | lutG[(p >>> 8) & 0xff] | lutB[(p >>> 16) & 0xff];
+            } else {
+                pixels[i] = blendPixel(p);
+            }
+        }
+    }
+
+    /**
+     * Blends a single pixel, the same way {@link #blend(int[], int, int)} does.
+     * For blur kernels which blend while writing their last pass.
+     * The tables aren't built for an {@link #isIdentity() identity}, kernels get no engine then.
+     */
+    int apply(int p) {
+        if (p >>> 24 == 255) {
+            return lutR[p & 0xff] | lutG[(p >>> 8) & 0xff] | lutB[(p >>> 16) & 0xff];
+        }
+        return blendPixel(p);
+    }
+
+    /**
+     * Blends a single pixel, translucent or not
+     */
+    int blendPixel(int p) {
+        if (ba != 0) {
+            int inverse = 255 - ba;
+            p = ba + div255((p >>> 24) * inverse) << 24
+                    | bb + div255(((p >>> 16) & 0xff) * inverse) << 16
+                    | bg + div255(((p >>> 8) & 0xff) * inverse) << 8
+                    | br + div255((p & 0xff) * inverse);
+        }
+        int da = p >>> 24;
+        int a = blendAlpha(mode, sa, da);
+        int r = Math.min(blendChannel(mode, sr, sa, p & 0xff, da), a);
+        int g = Math.min(blendChannel(mode, sg, sa, (p >>> 8) & 0xff, da), a);
+        int b = Math.min(blendChannel(mode, sb, sa, (p >>> 16) & 0xff, da), a);
+        return a << 24 | b << 16 | g << 8 | r;
+    }
+
+    private static int blendAlpha(int mode, int sa, int da) {
+        switch (mode) {
+            case CLEAR:
+                return 0;
+            case SRC:
+                return sa;
+            case DST:
+            case NONE:
+                return da;
+            case SRC_IN:
+            case DST_IN:
+            case MULTIPLY:
+                return div255(sa * da);
+            case SRC_OUT:
+                return div255(sa * (255 - da));
+            case DST_OUT:
+                return div255(da * (255 - sa));
+            case SRC_ATOP:
+                return da;
+            case DST_ATOP:
+                return sa;
+            case XOR:
+                return div255(sa * (255 - da) + da * (255 - sa));
+            case ADD:
+                return Math.min(255, sa + da);
+            default:
+                // SRC_OVER, DST_OVER, SCREEN and the separable modes
+                return sa + da - div255(sa * da);
+        }
+    }
+
+    /**
+     * @return premultiplied output channel for premultiplied source s and destination d
+     */
+    private static int blendChannel(int mode, int s, int sa, int d, int da) {
+        int value;
+        switch (mode) {
+            case CLEAR:
+                return 0;
+            case SRC:
+                return s;
+            case DST:
+            case NONE:
+                return d;
+            case SRC_OVER:
+                value = s * 255 + d * (255 - sa);
+                break;
+            case DST_OVER:
+                value = d * 255 + s * (255 - da);
+                break;
+            case SRC_IN:
+                value = s * da;
+                break;
+            case DST_IN:
+                value = d * sa;
+                break;
+            case SRC_OUT:
+                value = s * (255 - da);
+                break;
+            case DST_OUT:
+                value = d * (255 - sa);
+                break;
+            case SRC_ATOP:
+                value = s * da + d * (255 - sa);
+                break;
+            case DST_ATOP:
+                value = d * sa + s * (255 - da);
+                break;
+            case XOR:
+                value = s * (255 - da) + d * (255 - sa);
+                break;
+            case ADD:
+                return Math.min(255, s + d);
+            case MULTIPLY:
+                value = s * d;
+                break;
+            case SCREEN:
+                value = (s + d) * 255 - s * d;
+                break;
+            case OVERLAY:
+                value = s * (255 - da) + d * (255 - sa)
+                        + (2 * d <= da ? 2 * s * d : sa * da - 2 * (da - d) * (sa - s));
+                break;
+            case DARKEN:
+                value = s * (255 - da) + d * (255 - sa) + Math.min(s * da, d * sa);
+                break;
+            case LIGHTEN:
+                value = s * (255 - da) + d * (255 - sa) + Math.max(s * da, d * sa);
+                break;
+            default:
+                return d;
+        }
+        return Math.max(0, Math.min(255, div255(value)));
+    }
+
+    /**
+     * Rounded x / 255 for x in [0, 255 * 255 * 2]
+     */
+    private static int div255(int x) {
+        x += 128;
+        return (x + (x >>> 8)) >>> 8;
+    }
+}
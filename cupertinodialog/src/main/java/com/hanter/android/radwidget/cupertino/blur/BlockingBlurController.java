@@ -2,75 +2,39 @@ package com.hanter.android.radwidget.cupertino.blur;
 
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
-import android.graphics.Rect;
-import android.graphics.drawable.Drawable;
-import android.os.Build;
 import android.view.ViewGroup;
-import android.view.ViewTreeObserver;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.hanter.android.radwidget.cupertino.CupertinoTrace;
+
 /**
  * Blur Controller that handles all blur logic for the attached View.
- * It honors View size changes, View animation and Visibility changes.
  * <p>
  * The basic idea is to draw the view hierarchy on a bitmap, excluding the attached View,
  * then blur and draw it on the system Canvas.
  * <p>
- * It uses {@link ViewTreeObserver.OnPreDrawListener} to detect when
- * blur should be updated.
+ * The capture is fingerprinted before blurring, if the content didn't change since
+ * the previous frame, the blur is skipped and the previously blurred bitmap is left untouched,
+ * so it isn't uploaded again either. For that the capture and the blurred result live in two
+ * bitmaps which swap roles after each blur.
+ * <p>
+ * While the blur radius animates, the levels of the {@link BlurMipChain} are blurred from
+ * the same capture as the result, and the capture is frozen until the animation ends.
  * <p>
  * Blur is done on the main thread.
  */
-final class BlockingBlurController implements BlurController {
-
-    private static final String TAG = "BlockingBlurController";
+final class BlockingBlurController extends AbstractBlurController {
 
-    private static final boolean BLEND_BY_CANVAS = Build.VERSION.SDK_INT >= Build.VERSION_CODES.P;
-
-    // Bitmap size should be divisible by ROUNDING_VALUE to meet stride requirement.
-    // This will help avoiding an extra bitmap allocation when passing the bitmap to RenderScript for blur.
-    // Usually it's 16, but on Samsung devices it's 64 for some reason.
-    private static final int ROUNDING_VALUE = 64;
-    private final float scaleFactor = DEFAULT_SCALE_FACTOR;
-    private float blurRadius = DEFAULT_BLUR_RADIUS;
-    private float roundingWidthScaleFactor = 1f;
-    private float roundingHeightScaleFactor = 1f;
-
-    private BlurAlgorithm blurAlgorithm;
+    // Capture target
     private Canvas internalCanvas;
     private Bitmap internalBitmap;
-
-    private final BlurView blurView;
-    private final ViewGroup rootView;
-    private final int[] rootLocation = new int[2];
-    private final int[] blurViewLocation = new int[2];
-    private final Rect bitmapRect = new Rect();
-    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.ANTI_ALIAS_FLAG);
-
-    private final ViewTreeObserver.OnPreDrawListener drawListener = new ViewTreeObserver.OnPreDrawListener() {
-        @Override
-        public boolean onPreDraw() {
-            // Not invalidating a View here, just updating the Bitmap.
-            // This relies on the HW accelerated bitmap drawing behavior in Android
-            // If the bitmap was drawn on HW accelerated canvas, it holds a reference to it and on next
-            // drawing pass the updated content of the bitmap will be rendered on the screen
-
-            updateBlur();
-            return true;
-        }
-    };
-
-    private boolean blurEnabled = false;
-    private int initWidth;
-    private int initHeight;
-
+    // Last blurred result, drawn by BlurView
+    @Nullable
+    private Canvas blurredCanvas;
     @Nullable
-    private Drawable frameClearDrawable;
-    private boolean hasFixedTransformationMatrix;
+    private Bitmap blurredBitmap;
 
     /**
      * @param blurView View which will draw it's blurred underlying content
@@ -79,254 +43,125 @@ final class BlockingBlurController implements BlurController {
      *                 or some of your custom root layouts.
      */
     BlockingBlurController(@NonNull BlurView blurView, @NonNull ViewGroup rootView) {
-        this.rootView = rootView;
-        this.blurView = blurView;
-        this.blurAlgorithm = new NoOpBlurAlgorithm();
-
-        int measuredWidth = blurView.getMeasuredWidth();
-        int measuredHeight = blurView.getMeasuredHeight();
-
-        if (isZeroSized(measuredWidth, measuredHeight)) {
-            deferBitmapCreation();
-            return;
-        }
-
-        init(measuredWidth, measuredHeight);
-    }
-
-    private int downScaleSize(float value) {
-        return (int) Math.ceil(value / scaleFactor);
-    }
-
-    /**
-     * Rounds a value to the nearest divisible by {@link #ROUNDING_VALUE} to meet stride requirement
-     */
-    private int roundSize(int value) {
-        if (value % ROUNDING_VALUE == 0) {
-            return value;
-        }
-        return value - (value % ROUNDING_VALUE) + ROUNDING_VALUE;
+        super(blurView, rootView);
+        start();
     }
 
-    void init(int measuredWidth, int measuredHeight) {
-        if (initWidth == measuredWidth && initHeight == measuredHeight) {
-            return;
-        }
-
-        initWidth = measuredWidth;
-        initHeight = measuredHeight;
-
-        if (isZeroSized(measuredWidth, measuredHeight)) {
-            blurEnabled = false;
-            blurView.setWillNotDraw(true);
-            setBlurAutoUpdateInternal(false);
-            return;
-        }
-
-        blurEnabled = true;
-        blurView.setWillNotDraw(false);
-        allocateBitmap(measuredWidth, measuredHeight);
-        internalCanvas = new Canvas(internalBitmap);
-        setBlurAutoUpdateInternal(true);
-        if (hasFixedTransformationMatrix) {
-            setupInternalCanvasMatrix();
-        }
-    }
-
-    private boolean isZeroSized(int measuredWidth, int measuredHeight) {
-        return downScaleSize(measuredHeight) == 0 || downScaleSize(measuredWidth) == 0;
+    @Override
+    void allocateBuffers() {
+        BlurCapture.releaseBitmap(internalBitmap);
+        BlurCapture.releaseBitmap(blurredBitmap);
+        internalBitmap = capture.createBitmap(blurAlgorithm.getSupportedBitmapConfig());
+        internalCanvas = capture.createCanvas(internalBitmap);
+        blurredBitmap = null;
+        blurredCanvas = null;
     }
 
-    void updateBlur() {
-        if (!blurEnabled) {
+    @Override
+    void captureAndBlur() {
+        long start = System.nanoTime();
+        int barrierColor = getCaptureBarrierColor();
+        capture.capture(internalBitmap, internalCanvas, barrierColor);
+        long captured = System.nanoTime();
+        recordCaptureTint(internalBitmap, barrierColor);
+        long mipChainNanos = 0;
+        if (mipChain.isAnimating()) {
+            buildMipChain();
+            // Once per animation, not what a regular frame costs
+            mipChainNanos = System.nanoTime() - captured;
+        }
+
+        // Algorithms that swap bitmaps themselves keep the single buffer behavior
+        if (getActiveAlgorithm().canModifyBitmap() && blurredBitmap != null
+                && !changeDetector.hasChanged(internalBitmap, blurParamsHash())) {
+            if (metrics != null) {
+                metrics.recordStage(BlurMetrics.STAGE_CAPTURE, captured - start);
+                metrics.recordSkippedFrame();
+            }
             return;
         }
 
-        if (frameClearDrawable == null) {
-            internalBitmap.eraseColor(Color.TRANSPARENT);
-        } else {
-            frameClearDrawable.draw(internalCanvas);
-        }
-
-        if (hasFixedTransformationMatrix) {
-            rootView.draw(internalCanvas);
-        } else {
-            internalCanvas.save();
-            setupInternalCanvasMatrix();
-            rootView.draw(internalCanvas);
-            internalCanvas.restore();
-        }
+        blurAndSave();
+        blurCount++;
 
-        if (blurView.barrierColor != Color.TRANSPARENT) {
-            internalCanvas.drawColor(blurView.barrierColor);
+        long blurred = System.nanoTime();
+        onBlurTimed(blurred - start - mipChainNanos);
+        if (metrics != null) {
+            metrics.recordStage(BlurMetrics.STAGE_CAPTURE, captured - start);
+            metrics.recordStage(BlurMetrics.STAGE_BLUR, blurred - captured);
         }
-
-        blurAndSave();
     }
 
-    /**
-     * Deferring initialization until view is laid out
-     */
-    private void deferBitmapCreation() {
-        blurView.getViewTreeObserver().addOnGlobalLayoutListener(new ViewTreeObserver.OnGlobalLayoutListener() {
-            @Override
-            public void onGlobalLayout() {
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
-                    blurView.getViewTreeObserver().removeOnGlobalLayoutListener(this);
-                } else {
-                    blurView.getViewTreeObserver().removeGlobalOnLayoutListener(this);
-                }
-
-                init(blurView.getMeasuredWidth(), blurView.getMeasuredHeight());
-            }
-        });
+    @Nullable
+    @Override
+    Bitmap getBlurredBitmap() {
+        return blurredBitmap != null ? blurredBitmap : internalBitmap;
     }
 
-    private void allocateBitmap(int measuredWidth, int measuredHeight) {
-        int nonRoundedScaledWidth = downScaleSize(measuredWidth);
-        int nonRoundedScaledHeight = downScaleSize(measuredHeight);
-
-        int scaledWidth = roundSize(nonRoundedScaledWidth);
-        int scaledHeight = roundSize(nonRoundedScaledHeight);
-
-        roundingHeightScaleFactor = (float) nonRoundedScaledHeight / scaledHeight;
-        roundingWidthScaleFactor = (float) nonRoundedScaledWidth / scaledWidth;
-
-        internalBitmap = Bitmap.createBitmap(scaledWidth, scaledHeight, blurAlgorithm.getSupportedBitmapConfig());
-
-        bitmapRect.set(0, 0, scaledWidth, scaledHeight);
+    @Override
+    boolean isCaptureCanvas(Canvas canvas) {
+        return canvas == internalCanvas || canvas == blurredCanvas;
     }
 
     /**
-     * Set up matrix to draw starting from blurView's position
+     * Blurs the levels under the result from the capture, before it's blurred in place
      */
-    private void setupInternalCanvasMatrix() {
-        rootView.getLocationOnScreen(rootLocation);
-        blurView.getLocationOnScreen(blurViewLocation);
-
-        int left = blurViewLocation[0] - rootLocation[0];
-        int top = blurViewLocation[1] - rootLocation[1];
-
-        float scaleFactorX = scaleFactor * roundingWidthScaleFactor;
-        float scaleFactorY = scaleFactor * roundingHeightScaleFactor;
-
-        float scaledLeftPosition = -left / scaleFactorX;
-        float scaledTopPosition = -top / scaleFactorY;
-
-        internalCanvas.translate(scaledLeftPosition, scaledTopPosition);
-        internalCanvas.scale(1 / scaleFactorX, 1 / scaleFactorY);
-    }
-
-    @Override
-    public boolean draw(Canvas canvas) {
-        if (!blurEnabled) {
-            return true;
-        }
-        // Not blurring own children
-        if (canvas == internalCanvas) {
-            return false;
+    private void buildMipChain() {
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.begin(CupertinoTrace.BLUR_BLUR);
         }
-
-        updateBlur();
-
-        canvas.drawBitmap(internalBitmap, bitmapRect, blurView.rectF, paint);
-
-        if (useCanvasBlend() && blurView.getPorterDuffMode() != null) {
-            canvas.drawColor(blurView.overlayColor, blurView.getPorterDuffMode());
+        int blendMode = useCanvasBlend() ? BlurView.NONE : blurView.overlayBlendMode;
+        mipChain.build(internalBitmap, getActiveAlgorithm(), getEffectiveRadius(), getAlgorithmBarrierColor(),
+                blurView.overlayColor, blendMode);
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.end();
         }
-
-        return true;
-    }
-
-    private boolean useCanvasBlend() {
-        return BLEND_BY_CANVAS || (blurView.overlayBlendMode != BlurView.LIGHTEN
-                && blurView.overlayBlendMode != BlurView.DARKEN
-                && blurView.overlayBlendMode != BlurView.OVERLAY);
     }
 
     private void blurAndSave() {
-        if (useCanvasBlend()) {
-            internalBitmap = blurAlgorithm.blur(internalBitmap, blurRadius);
-        } else {
-            internalBitmap = blurAlgorithm.blur(internalBitmap, blurRadius, blurView.overlayColor,
-                    blurView.overlayBlendMode);
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.begin(CupertinoTrace.BLUR_BLUR);
+        }
+        int blendMode = useCanvasBlend() ? BlurView.NONE : blurView.overlayBlendMode;
+        BlurAlgorithm algorithm = getActiveAlgorithm();
+        internalBitmap = blur(algorithm, internalBitmap, getEffectiveRadius(), getAlgorithmBarrierColor(),
+                blurView.overlayColor, blendMode);
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.end();
         }
 
-        if (!blurAlgorithm.canModifyBitmap()) {
+        if (!algorithm.canModifyBitmap()) {
             internalCanvas.setBitmap(internalBitmap);
+            blurredBitmap = null;
+            return;
         }
-    }
 
-    @Override
-    public void updateBlurViewSize() {
-        init(blurView.getMeasuredWidth(), blurView.getMeasuredHeight());
-    }
-
-    @Override
-    public void destroy() {
-        setBlurAutoUpdateInternal(false);
-        blurAlgorithm.destroy();
-        if (internalBitmap != null) {
-            internalBitmap.recycle();
+        // Blurred in place, show it and capture the next frame into the other bitmap
+        if (blurredBitmap == null) {
+            blurredBitmap = capture.createBitmap(internalBitmap.getConfig());
+            blurredCanvas = capture.createCanvas(blurredBitmap);
         }
-    }
-
-    @Override
-    public BlurViewFacade setBlurRadius(float radius) {
-        this.blurRadius = radius;
-        return this;
-    }
-
-    @Override
-    public BlurViewFacade setBlurAlgorithm(BlurAlgorithm algorithm) {
-        this.blurAlgorithm = algorithm;
-        return this;
-    }
 
-    @Override
-    public BlurViewFacade setFrameClearDrawable(@Nullable Drawable frameClearDrawable) {
-        this.frameClearDrawable = frameClearDrawable;
-        return this;
-    }
+        Bitmap bitmap = blurredBitmap;
+        blurredBitmap = internalBitmap;
+        internalBitmap = bitmap;
 
-    void setBlurEnabledInternal(boolean enabled) {
-        this.blurEnabled = enabled;
-        setBlurAutoUpdateInternal(enabled);
-        blurView.invalidate();
+        Canvas canvas = blurredCanvas;
+        blurredCanvas = internalCanvas;
+        internalCanvas = canvas;
     }
 
     @Override
-    public BlurViewFacade setBlurEnabled(final boolean enabled) {
-        blurView.post(new Runnable() {
-            @Override
-            public void run() {
-                setBlurEnabledInternal(enabled);
-            }
-        });
-        return this;
-    }
-
-    void setBlurAutoUpdateInternal(boolean enabled) {
-        blurView.getViewTreeObserver().removeOnPreDrawListener(drawListener);
-        if (enabled) {
-            blurView.getViewTreeObserver().addOnPreDrawListener(drawListener);
-        }
-    }
-
-    public BlurViewFacade setBlurAutoUpdate(final boolean enabled) {
-        blurView.post(new Runnable() {
-            @Override
-            public void run() {
-                setBlurAutoUpdateInternal(enabled);
-            }
-        });
-        return this;
+    boolean buildsMipChain() {
+        return true;
     }
 
     @Override
-    public BlurViewFacade setHasFixedTransformationMatrix(boolean hasFixedTransformationMatrix) {
-        this.hasFixedTransformationMatrix = hasFixedTransformationMatrix;
-        return this;
+    void releaseBuffers() {
+        blurAlgorithm.destroy();
+        BlurCapture.releaseBitmap(internalBitmap);
+        BlurCapture.releaseBitmap(blurredBitmap);
+        internalBitmap = null;
+        blurredBitmap = null;
     }
-
 }
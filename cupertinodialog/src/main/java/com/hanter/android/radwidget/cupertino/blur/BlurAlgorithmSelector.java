@@ -0,0 +1,324 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.hanter.android.radwidget.cupertino.CupertinoTrace;
+
+import java.util.Arrays;
+
+/**
+ * Picks the fastest {@link BlurAlgorithm} of the device, so dialogs blur quickly on GPU-strong and
+ * CPU-strong devices alike without tuning per model.
+ * <p>
+ * The first time it's used, every candidate blurs a probe bitmap the size of a downscaled screen.
+ * Candidates whose result differs too much from a true Gaussian blur are dropped, the fastest of
+ * the others wins. The choice is kept in {@link SharedPreferences}, keyed by {@link Build#FINGERPRINT}
+ * and the app's version code, so later launches skip the probe until the system or the app is updated.
+ * <p>
+ * The probe takes a few tens of milliseconds. It runs on a background thread once the main thread is idle
+ * and no blur is shown, so it doesn't compete with the blur of the dialog that asked for it.
+ * CPU candidates run on their own workers at default priority, as RenderScript runs on threads of its own.
+ * Until it's done {@link IirGaussianBlur} is used, which is good on any device. Algorithms created
+ * afterwards follow the choice.
+ */
+@MainThread
+public final class BlurAlgorithmSelector {
+
+    public static final int RENDERSCRIPT = 0;
+    public static final int IIR_GAUSSIAN = 1;
+    public static final int BOX = 2;
+    public static final int STACK = 3;
+
+    private static final int[] CANDIDATES = {RENDERSCRIPT, IIR_GAUSSIAN, BOX, STACK};
+
+    private static final String PREFS_NAME = "cupertino_blur_selector";
+    private static final String KEY_DEVICE = "device";
+    private static final String KEY_ALGORITHM = "algorithm";
+
+    // Downscaled 1080x1920 screen, width rounded like BlurCapture does
+    private static final int PROBE_WIDTH = 192;
+    private static final int PROBE_HEIGHT = 240;
+    private static final float PROBE_RADIUS = 20f;
+    private static final int WARM_UP_RUNS = 1;
+    private static final int TIMED_RUNS = 5;
+    // Timed runs spread wider than this were disturbed by something else, they are thrown away and repeated
+    private static final float MAX_SPREAD = 2f;
+    private static final int MAX_ATTEMPTS = 3;
+    // How often to check whether blurs are still shown, and how long to wait for them at most
+    private static final long IDLE_CHECK_MS = 500;
+    private static final long MAX_IDLE_WAIT_MS = 10000;
+    // Mean difference per channel to a Gaussian blur, box and stack blurs stay under 2 at the probe radius
+    private static final float MAX_MEAN_ERROR = 3f;
+
+    private static BlurAlgorithmSelector instance;
+
+    private final Context context;
+    private final SharedPreferences preferences;
+    private final String deviceKey;
+    // Written by the calibration thread
+    private volatile int selected = -1;
+    private volatile long calibrationTimeNanos;
+    private volatile boolean calibrating;
+
+    private BlurAlgorithmSelector(Context context) {
+        this.context = context;
+        this.preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.deviceKey = Build.FINGERPRINT + "/" + getVersionCode(context);
+    }
+
+    /**
+     * @return selector shared within the process
+     */
+    @NonNull
+    public static BlurAlgorithmSelector get(@NonNull Context context) {
+        if (instance == null) {
+            Context appContext = context.getApplicationContext() != null
+                    ? context.getApplicationContext() : context;
+            instance = new BlurAlgorithmSelector(appContext);
+        }
+        return instance;
+    }
+
+    /**
+     * @return new instance of the selected algorithm
+     */
+    @NonNull
+    public BlurAlgorithm createAlgorithm() {
+        BlurAlgorithm algorithm = create(getSelectedAlgorithm());
+        // Selected on an earlier launch, where RenderScript still worked
+        return algorithm != null ? algorithm : new IirGaussianBlur();
+    }
+
+    /**
+     * @return one of {@link #RENDERSCRIPT}, {@link #IIR_GAUSSIAN}, {@link #BOX} or {@link #STACK}.
+     * If there is no choice for this device and app version yet, {@link #IIR_GAUSSIAN} while
+     * the calibration runs.
+     */
+    public int getSelectedAlgorithm() {
+        int selected = this.selected;
+        if (selected < 0) {
+            if (deviceKey.equals(preferences.getString(KEY_DEVICE, null))) {
+                selected = preferences.getInt(KEY_ALGORITHM, IIR_GAUSSIAN);
+                this.selected = selected;
+            } else {
+                calibrate();
+                return IIR_GAUSSIAN;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * @return how long the probe took in this process, 0 if the choice was loaded
+     */
+    public long getCalibrationTimeNanos() {
+        return calibrationTimeNanos;
+    }
+
+    /**
+     * Probes the candidates again, e.g. after the app changed its blur radius or scale factor a lot.
+     * Returns right away, the probe runs on a background thread once the main thread is idle.
+     */
+    public void calibrate() {
+        if (calibrating) {
+            return;
+        }
+        calibrating = true;
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            awaitNoBlurShown();
+                            runCalibration();
+                        } finally {
+                            calibrating = false;
+                        }
+                    }
+                }, "BlurCalibration");
+                thread.setDaemon(true);
+                thread.start();
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Blurs shown in the meantime would slow the candidates down unevenly. One shown for longer than
+     * {@link #MAX_IDLE_WAIT_MS} mostly skips unchanged frames, the probe runs anyway then.
+     */
+    @WorkerThread
+    private static void awaitNoBlurShown() {
+        long deadline = SystemClock.uptimeMillis() + MAX_IDLE_WAIT_MS;
+        while (BlurMemoryGovernor.getUsedBytes() > 0 && SystemClock.uptimeMillis() < deadline) {
+            SystemClock.sleep(IDLE_CHECK_MS);
+        }
+    }
+
+    @WorkerThread
+    private void runCalibration() {
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.begin(CupertinoTrace.BLUR_CALIBRATE);
+        }
+        long start = System.nanoTime();
+        int[] probe = createProbe(PROBE_WIDTH, PROBE_HEIGHT);
+        Bitmap bitmap = Bitmap.createBitmap(PROBE_WIDTH, PROBE_HEIGHT, Bitmap.Config.ARGB_8888);
+        int[] reference = new int[probe.length];
+        int[] result = new int[probe.length];
+        // Not the default pool, which the blurs of the app share
+        BlurWorkers workers = new BlurWorkers(Runtime.getRuntime().availableProcessors());
+
+        BlurAlgorithm gaussian = new IirGaussianBlur(workers);
+        blurProbe(gaussian, bitmap, probe);
+        gaussian.destroy();
+        bitmap.getPixels(reference, 0, PROBE_WIDTH, 0, 0, PROBE_WIDTH, PROBE_HEIGHT);
+
+        int fastest = IIR_GAUSSIAN;
+        long fastestNanos = Long.MAX_VALUE;
+        for (int candidate : CANDIDATES) {
+            BlurAlgorithm algorithm = create(candidate, workers);
+            if (algorithm == null) {
+                continue;
+            }
+            long nanos = timeProbe(algorithm, bitmap, probe);
+            bitmap.getPixels(result, 0, PROBE_WIDTH, 0, 0, PROBE_WIDTH, PROBE_HEIGHT);
+            algorithm.destroy();
+            if (nanos < fastestNanos && meanError(reference, result) <= MAX_MEAN_ERROR) {
+                fastest = candidate;
+                fastestNanos = nanos;
+            }
+        }
+        bitmap.recycle();
+        workers.shutdown();
+
+        selected = fastest;
+        preferences.edit()
+                .putString(KEY_DEVICE, deviceKey)
+                .putInt(KEY_ALGORITHM, fastest)
+                .apply();
+        calibrationTimeNanos = System.nanoTime() - start;
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.end();
+        }
+    }
+
+    /**
+     * @return median time of a blur, the bitmap holds the blurred probe afterwards.
+     * Runs spread too wide are repeated, up to {@link #MAX_ATTEMPTS} times.
+     */
+    private static long timeProbe(BlurAlgorithm algorithm, Bitmap bitmap, int[] probe) {
+        for (int i = 0; i < WARM_UP_RUNS; i++) {
+            blurProbe(algorithm, bitmap, probe);
+        }
+        long[] nanos = new long[TIMED_RUNS];
+        for (int attempt = 1; ; attempt++) {
+            for (int i = 0; i < TIMED_RUNS; i++) {
+                nanos[i] = blurProbe(algorithm, bitmap, probe);
+            }
+            Arrays.sort(nanos);
+            if (nanos[TIMED_RUNS - 1] <= MAX_SPREAD * nanos[0] || attempt == MAX_ATTEMPTS) {
+                return nanos[TIMED_RUNS / 2];
+            }
+        }
+    }
+
+    private static long blurProbe(BlurAlgorithm algorithm, Bitmap bitmap, int[] probe) {
+        bitmap.setPixels(probe, 0, PROBE_WIDTH, 0, 0, PROBE_WIDTH, PROBE_HEIGHT);
+        long start = System.nanoTime();
+        Bitmap blurred = algorithm.blur(bitmap, PROBE_RADIUS);
+        long nanos = System.nanoTime() - start;
+        if (blurred != bitmap) {
+            int[] pixels = new int[probe.length];
+            blurred.getPixels(pixels, 0, PROBE_WIDTH, 0, 0, PROBE_WIDTH, PROBE_HEIGHT);
+            bitmap.setPixels(pixels, 0, PROBE_WIDTH, 0, 0, PROBE_WIDTH, PROBE_HEIGHT);
+        }
+        return nanos;
+    }
+
+    /**
+     * @return null if the algorithm can't run on this device
+     */
+    @Nullable
+    private BlurAlgorithm create(int algorithm) {
+        return create(algorithm, BlurWorkers.getDefault());
+    }
+
+    /**
+     * @param workers pool the CPU algorithms run on
+     */
+    @Nullable
+    private BlurAlgorithm create(int algorithm, BlurWorkers workers) {
+        switch (algorithm) {
+            case RENDERSCRIPT:
+                try {
+                    return new RenderScriptBlur(context);
+                } catch (RuntimeException e) {
+                    // RSRuntimeException, e.g. missing or broken RenderScript driver
+                    return null;
+                }
+            case BOX:
+                return new BoxBlur(workers);
+            case STACK:
+                return new StackBlur(workers);
+            case IIR_GAUSSIAN:
+            default:
+                return new IirGaussianBlur(workers);
+        }
+    }
+
+    /**
+     * @return opaque content like the one dialogs blur: text lines, flat blocks, a gradient
+     */
+    private static int[] createProbe(int width, int height) {
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int color;
+                if (x >= width * 3 / 4) {
+                    color = 0xFF0000FF | ((x * 4 & 0xFF) << 8) | ((y & 0xFF) << 16);
+                } else if (y >= height / 2) {
+                    color = x % 6 < 2 && y % 10 < 7 ? 0xFF000000 : 0xFFF0F0F0;
+                } else {
+                    color = (x / 8 + y / 8) % 2 == 0 ? 0xFFFFFFFF : 0xFF202020;
+                }
+                pixels[y * width + x] = color;
+            }
+        }
+        return pixels;
+    }
+
+    private static float meanError(int[] expected, int[] actual) {
+        long sum = 0;
+        for (int i = 0; i < expected.length; i++) {
+            for (int shift = 0; shift < 32; shift += 8) {
+                sum += Math.abs((expected[i] >>> shift & 0xFF) - (actual[i] >>> shift & 0xFF));
+            }
+        }
+        return sum / (4f * expected.length);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static long getVersionCode(Context context) {
+        try {
+            PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+            return Build.VERSION.SDK_INT >= Build.VERSION_CODES.P ? info.getLongVersionCode() : info.versionCode;
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
+        }
+    }
+}
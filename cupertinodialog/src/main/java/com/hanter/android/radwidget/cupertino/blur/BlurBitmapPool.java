@@ -0,0 +1,175 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide pool of the bitmaps blur controllers capture into and blur.
+ * <p>
+ * Capture sizes are rounded to a multiple of 64, so the same few sizes come back
+ * every time a dialog is shown. Controllers return their bitmaps here instead of recycling them,
+ * and the next controller of the same size takes them over without allocating.
+ * <p>
+ * Bitmaps are grouped by (width, height, config), groups are evicted least recently used first
+ * once the pooled bytes exceed the cap. Thread-safe, the async controller returns bitmaps from its worker.
+ */
+final class BlurBitmapPool {
+
+    // A handful of full screen captures at the default scale factor
+    static final long DEFAULT_MAX_BYTES = 4L * 1024 * 1024;
+
+    private static final class Holder {
+        static final BlurBitmapPool INSTANCE = new BlurBitmapPool(DEFAULT_MAX_BYTES);
+    }
+
+    private static final class Key {
+        final int width;
+        final int height;
+        final Bitmap.Config config;
+
+        Key(int width, int height, Bitmap.Config config) {
+            this.width = width;
+            this.height = height;
+            this.config = config;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return width == key.width && height == key.height && config == key.config;
+        }
+
+        @Override
+        public int hashCode() {
+            return (width * 31 + height) * 31 + config.hashCode();
+        }
+    }
+
+    // Access ordered, eldest group is the least recently used
+    private final LinkedHashMap<Key, ArrayDeque<Bitmap>> groups = new LinkedHashMap<>(8, 0.75f, true);
+    private long maxBytes;
+    private long pooledBytes;
+    private long hits;
+    private long misses;
+
+    static BlurBitmapPool get() {
+        return Holder.INSTANCE;
+    }
+
+    BlurBitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return cleared bitmap of the given size, pooled if there is one
+     */
+    @NonNull
+    Bitmap acquire(int width, int height, @NonNull Bitmap.Config config) {
+        Bitmap bitmap = null;
+        synchronized (this) {
+            Key key = new Key(width, height, config);
+            ArrayDeque<Bitmap> group = groups.get(key);
+            if (group != null) {
+                bitmap = group.pollLast();
+                if (group.isEmpty()) {
+                    groups.remove(key);
+                }
+            }
+            if (bitmap != null) {
+                pooledBytes -= bitmap.getByteCount();
+                hits++;
+            } else {
+                misses++;
+            }
+        }
+
+        if (bitmap == null) {
+            return Bitmap.createBitmap(width, height, config);
+        }
+        bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+
+    /**
+     * Gives the bitmap to the pool, the caller must not use it anymore
+     */
+    void release(@Nullable Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        int bytes = bitmap.getByteCount();
+        if (!bitmap.isMutable() || bytes > maxBytes) {
+            bitmap.recycle();
+            return;
+        }
+
+        synchronized (this) {
+            Key key = new Key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+            ArrayDeque<Bitmap> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayDeque<>();
+                groups.put(key, group);
+            }
+            group.addLast(bitmap);
+            pooledBytes += bytes;
+            trimToSizeLocked(maxBytes);
+        }
+    }
+
+    /**
+     * Recycles pooled bitmaps, least recently used first, until at most maxBytes are left
+     */
+    synchronized void trimToSize(long maxBytes) {
+        trimToSizeLocked(maxBytes);
+    }
+
+    synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trimToSizeLocked(maxBytes);
+    }
+
+    synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    synchronized long getHitCount() {
+        return hits;
+    }
+
+    synchronized long getMissCount() {
+        return misses;
+    }
+
+    private void trimToSizeLocked(long maxBytes) {
+        Iterator<Map.Entry<Key, ArrayDeque<Bitmap>>> iterator = groups.entrySet().iterator();
+        while (pooledBytes > maxBytes && iterator.hasNext()) {
+            ArrayDeque<Bitmap> group = iterator.next().getValue();
+            while (pooledBytes > maxBytes && !group.isEmpty()) {
+                Bitmap bitmap = group.pollFirst();
+                pooledBytes -= bitmap.getByteCount();
+                bitmap.recycle();
+            }
+            if (group.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+}
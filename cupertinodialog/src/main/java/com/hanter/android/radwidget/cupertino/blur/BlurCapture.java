@@ -0,0 +1,236 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.view.ViewGroup;
+
+import androidx.annotation.ColorInt;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.hanter.android.radwidget.cupertino.CupertinoTrace;
+
+/**
+ * Draws the part of the root View which lies under BlurView into a downscaled bitmap.
+ * <p>
+ * Shared by the blur controllers, which decide when to capture and what happens to the result.
+ */
+final class BlurCapture {
+
+    // Bitmap size should be divisible by ROUNDING_VALUE to meet stride requirement.
+    // This will help avoiding an extra bitmap allocation when passing the bitmap to RenderScript for blur.
+    // Usually it's 16, but on Samsung devices it's 64 for some reason.
+    private static final int ROUNDING_VALUE = 64;
+    // Margin is there so the edges blur with the real neighbourhood, not a clamped edge.
+    // Radii beyond that fade out the edges a bit, which is fine.
+    private static final int MAX_MARGIN = 32;
+    private float scaleFactor = BlurController.DEFAULT_SCALE_FACTOR;
+    private float scaleX = scaleFactor;
+    private float scaleY = scaleFactor;
+    private int margin;
+
+    private final BlurView blurView;
+    private final ViewGroup rootView;
+    private final int[] rootLocation = new int[2];
+    private final int[] blurViewLocation = new int[2];
+    private final Rect bitmapRect = new Rect();
+    private int bitmapWidth;
+    private int bitmapHeight;
+    // Part of the root drawn into the bitmap, in root coordinates
+    private final RectF captureRect = new RectF();
+
+    @Nullable
+    private Drawable frameClearDrawable;
+    private boolean hasFixedTransformationMatrix;
+
+    BlurCapture(@NonNull BlurView blurView, @NonNull ViewGroup rootView) {
+        this.blurView = blurView;
+        this.rootView = rootView;
+    }
+
+    private int downScaleSize(float value) {
+        return (int) Math.ceil(value / scaleFactor);
+    }
+
+    /**
+     * Rounds a value to the nearest divisible by {@link #ROUNDING_VALUE} to meet stride requirement
+     */
+    private int roundSize(int value) {
+        if (value % ROUNDING_VALUE == 0) {
+            return value;
+        }
+        return value - (value % ROUNDING_VALUE) + ROUNDING_VALUE;
+    }
+
+    boolean isZeroSized(int measuredWidth, int measuredHeight) {
+        return downScaleSize(measuredHeight) == 0 || downScaleSize(measuredWidth) == 0;
+    }
+
+    float getScaleFactor() {
+        return scaleFactor;
+    }
+
+    /**
+     * Takes effect with the next {@link #setSize(int, int, int)}
+     */
+    void setScaleFactor(float scaleFactor) {
+        this.scaleFactor = scaleFactor;
+    }
+
+    /**
+     * @return margin around BlurView captured for the given radius, in bitmap pixels
+     */
+    static int marginFor(float blurRadius) {
+        return Math.min(MAX_MARGIN, Math.max(0, (int) Math.ceil(blurRadius)));
+    }
+
+    /**
+     * Computes the size of capture bitmaps for the given BlurView size
+     *
+     * @param margin captured around BlurView on each side, in bitmap pixels, see {@link #marginFor(float)}
+     */
+    void setSize(int measuredWidth, int measuredHeight, int margin) {
+        int scaledWidth = downScaleSize(measuredWidth);
+        int scaledHeight = downScaleSize(measuredHeight);
+
+        // Exact scale, so BlurView's part of the bitmap has integer bounds
+        scaleX = (float) measuredWidth / scaledWidth;
+        scaleY = (float) measuredHeight / scaledHeight;
+        this.margin = margin;
+
+        // Rounding leftover goes right and bottom, it's clipped out and never drawn into
+        bitmapWidth = roundSize(scaledWidth + 2 * margin);
+        bitmapHeight = roundSize(scaledHeight + 2 * margin);
+        bitmapRect.set(margin, margin, margin + scaledWidth, margin + scaledHeight);
+    }
+
+    int getBitmapWidth() {
+        return bitmapWidth;
+    }
+
+    int getBitmapHeight() {
+        return bitmapHeight;
+    }
+
+    /**
+     * @return cleared bitmap of the current capture size, taken from {@link BlurBitmapPool} if possible
+     */
+    @NonNull
+    Bitmap createBitmap(@NonNull Bitmap.Config config) {
+        return acquireBitmap(bitmapWidth, bitmapHeight, config);
+    }
+
+    /**
+     * @return cleared bitmap of the given size, taken from {@link BlurBitmapPool} if possible
+     * and accounted with {@link BlurMemoryGovernor}. Give back with {@link #releaseBitmap(Bitmap)}.
+     */
+    @NonNull
+    static Bitmap acquireBitmap(int width, int height, @NonNull Bitmap.Config config) {
+        Bitmap bitmap = BlurBitmapPool.get().acquire(width, height, config);
+        BlurMemoryGovernor.onAllocated(bitmap.getByteCount());
+        return bitmap;
+    }
+
+    /**
+     * Returns a bitmap from {@link #createBitmap(Bitmap.Config)} to the pool. Safe to call from any thread.
+     */
+    static void releaseBitmap(@Nullable Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        BlurMemoryGovernor.onFreed(bitmap.getByteCount());
+        BlurBitmapPool.get().release(bitmap);
+    }
+
+    /**
+     * @return canvas drawing into the given capture bitmap, with the matrix already set up
+     * if the transformation matrix is fixed
+     */
+    @NonNull
+    Canvas createCanvas(@NonNull Bitmap bitmap) {
+        Canvas canvas = new Canvas(bitmap);
+        if (hasFixedTransformationMatrix) {
+            setupInternalCanvasMatrix(canvas);
+        }
+        return canvas;
+    }
+
+    /**
+     * @return part of the capture bitmap which corresponds to BlurView
+     */
+    @NonNull
+    Rect getBitmapRect() {
+        return bitmapRect;
+    }
+
+    /**
+     * Draws the root View into the bitmap, followed by the barrier color.
+     * <p>
+     * Only the part under BlurView plus the margin is drawn, the clip lets the software canvas
+     * reject subtrees outside of it. Nothing is drawn if that part lies outside of the root.
+     *
+     * @param canvas       canvas created by {@link #createCanvas(Bitmap)} for this bitmap
+     * @param barrierColor drawn over the capture, transparent when the blur algorithm applies it itself
+     */
+    void capture(@NonNull Bitmap bitmap, @NonNull Canvas canvas, @ColorInt int barrierColor) {
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.begin(CupertinoTrace.BLUR_CAPTURE);
+        }
+        canvas.save();
+        if (!hasFixedTransformationMatrix) {
+            setupInternalCanvasMatrix(canvas);
+        }
+        canvas.clipRect(captureRect);
+
+        // Clears the rounding leftover too, so it doesn't carry stale pixels between frames
+        bitmap.eraseColor(Color.TRANSPARENT);
+        if (frameClearDrawable != null) {
+            frameClearDrawable.draw(canvas);
+        }
+
+        if (captureRect.intersects(0, 0, rootView.getWidth(), rootView.getHeight())) {
+            rootView.draw(canvas);
+        }
+
+        if (barrierColor != Color.TRANSPARENT) {
+            canvas.drawColor(barrierColor);
+        }
+        canvas.restore();
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.end();
+        }
+    }
+
+    /**
+     * Set up matrix to draw starting from blurView's position, minus the margin
+     */
+    private void setupInternalCanvasMatrix(Canvas canvas) {
+        rootView.getLocationOnScreen(rootLocation);
+        blurView.getLocationOnScreen(blurViewLocation);
+
+        int left = blurViewLocation[0] - rootLocation[0];
+        int top = blurViewLocation[1] - rootLocation[1];
+
+        canvas.translate(margin, margin);
+        canvas.scale(1 / scaleX, 1 / scaleY);
+        canvas.translate(-left, -top);
+
+        float marginX = margin * scaleX;
+        float marginY = margin * scaleY;
+        captureRect.set(left - marginX, top - marginY,
+                left + bitmapRect.width() * scaleX + marginX,
+                top + bitmapRect.height() * scaleY + marginY);
+    }
+
+    void setFrameClearDrawable(@Nullable Drawable frameClearDrawable) {
+        this.frameClearDrawable = frameClearDrawable;
+    }
+
+    void setHasFixedTransformationMatrix(boolean hasFixedTransformationMatrix) {
+        this.hasFixedTransformationMatrix = hasFixedTransformationMatrix;
+    }
+}
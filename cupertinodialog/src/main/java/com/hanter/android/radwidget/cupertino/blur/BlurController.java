@@ -19,6 +19,21 @@ interface BlurController extends BlurViewFacade {
      */
     void updateBlurViewSize();
 
+    /**
+     * @return number of times the content was actually captured and blurred
+     */
+    long getBlurCount();
+
+    /**
+     * @return number of frames where the captured content didn't change and blur was skipped
+     */
+    long getUnchangedFrameCount();
+
+    /**
+     * @return number of frames where the captured content changed and had to be blurred
+     */
+    long getChangedFrameCount();
+
     /**
      * Frees allocated resources
      */
@@ -0,0 +1,230 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Accounts for all memory held by the blur: controller bitmaps, pooled bitmaps
+ * and the buffers of the blur algorithms, and keeps it under a global cap.
+ * <p>
+ * Over the cap, or when the system asks to trim memory, {@link BlurBitmapPool} is shrunk first.
+ * If that is not enough the memory pressure is raised: at {@link #PRESSURE_MODERATE} blur controllers
+ * capture with a coarser scale factor, at {@link #PRESSURE_CRITICAL} they also stop blurring
+ * and only show the heavily downscaled capture, keeping their blur algorithm for later.
+ * <p>
+ * Pressure goes back down a level once the usage, grown to the finer scale factor of that level,
+ * would still stay under the cap, see {@link #updatePressure()}. Pressure raised by the system
+ * stays until the UI is hidden or no blur holds memory anymore.
+ * <p>
+ * Usage getters are meant for diagnostics.
+ */
+public final class BlurMemoryGovernor {
+
+    public static final int PRESSURE_NONE = 0;
+    public static final int PRESSURE_MODERATE = 1;
+    public static final int PRESSURE_CRITICAL = 2;
+
+    public static final long DEFAULT_MAX_BYTES = 12L * 1024 * 1024;
+
+    private static final float MODERATE_SCALE_FACTOR = 12f;
+    private static final float CRITICAL_SCALE_FACTOR = 16f;
+
+    private static final Object LOCK = new Object();
+
+    private static long maxBytes = DEFAULT_MAX_BYTES;
+    private static long usedBytes;
+    private static volatile int pressure = PRESSURE_NONE;
+    // Raised by trim memory requests, the usage alone doesn't lower it
+    private static int systemPressure = PRESSURE_NONE;
+    private static boolean callbacksRegistered;
+
+    private BlurMemoryGovernor() {
+    }
+
+    /**
+     * Starts listening to the system's trim memory requests, once per process
+     */
+    static void register(@NonNull Context context) {
+        synchronized (LOCK) {
+            if (callbacksRegistered) {
+                return;
+            }
+            callbacksRegistered = true;
+        }
+
+        Context appContext = context.getApplicationContext() != null
+                ? context.getApplicationContext() : context;
+        appContext.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                BlurMemoryGovernor.onTrimMemory(level);
+            }
+
+            @Override
+            public void onConfigurationChanged(@NonNull Configuration newConfig) {
+            }
+
+            @Override
+            public void onLowMemory() {
+                BlurBitmapPool.get().trimToSize(0);
+                raiseSystemPressure(PRESSURE_CRITICAL);
+            }
+        });
+    }
+
+    static void onTrimMemory(int level) {
+        BlurBitmapPool pool = BlurBitmapPool.get();
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            // Nothing is shown, nothing will need the pooled bitmaps soon.
+            // Blurs shown again start over, the cap raises the pressure again if they need it
+            pool.trimToSize(0);
+            synchronized (LOCK) {
+                systemPressure = PRESSURE_NONE;
+                pressure = PRESSURE_NONE;
+            }
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            pool.trimToSize(0);
+            raiseSystemPressure(PRESSURE_CRITICAL);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            pool.trimToSize(0);
+            raiseSystemPressure(PRESSURE_MODERATE);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            pool.trimToSize(pool.getPooledBytes() / 2);
+        }
+    }
+
+    /**
+     * Called whenever blur memory is allocated, enforces the cap
+     */
+    static void onAllocated(long bytes) {
+        long overBy;
+        synchronized (LOCK) {
+            usedBytes += bytes;
+            overBy = usedBytes + BlurBitmapPool.get().getPooledBytes() - maxBytes;
+        }
+        if (overBy <= 0) {
+            return;
+        }
+
+        BlurBitmapPool pool = BlurBitmapPool.get();
+        pool.trimToSize(Math.max(0, pool.getPooledBytes() - overBy));
+        synchronized (LOCK) {
+            if (usedBytes > maxBytes) {
+                raisePressure(usedBytes > 2 * maxBytes ? PRESSURE_CRITICAL : PRESSURE_MODERATE);
+            }
+        }
+    }
+
+    static void onFreed(long bytes) {
+        synchronized (LOCK) {
+            usedBytes = Math.max(0, usedBytes - bytes);
+            if (usedBytes == 0) {
+                systemPressure = PRESSURE_NONE;
+                pressure = PRESSURE_NONE;
+            }
+        }
+    }
+
+    /**
+     * Lowers the pressure by a level if the usage, grown to the finer scale factor of the level below,
+     * would not raise it again. Called by blur controllers before each frame rather than from
+     * {@link #onFreed(long)}, where a reallocation in progress would make the usage look lower than it is.
+     *
+     * @return the pressure to blur the frame with
+     */
+    static int updatePressure() {
+        synchronized (LOCK) {
+            if (pressure == PRESSURE_CRITICAL && systemPressure < PRESSURE_CRITICAL
+                    && grown(usedBytes, CRITICAL_SCALE_FACTOR, MODERATE_SCALE_FACTOR) <= 2 * maxBytes) {
+                pressure = PRESSURE_MODERATE;
+            }
+            if (pressure == PRESSURE_MODERATE && systemPressure < PRESSURE_MODERATE
+                    && grown(usedBytes, MODERATE_SCALE_FACTOR, AdaptiveScale.getFinestScaleFactor()) <= maxBytes) {
+                pressure = PRESSURE_NONE;
+            }
+            return pressure;
+        }
+    }
+
+    /**
+     * @return bytes held after recapturing at another scale factor, buffers scale with the bitmap area
+     */
+    private static long grown(long bytes, float fromScaleFactor, float toScaleFactor) {
+        float ratio = fromScaleFactor / toScaleFactor;
+        return (long) (bytes * ratio * ratio);
+    }
+
+    private static void raisePressure(int level) {
+        synchronized (LOCK) {
+            if (level > pressure) {
+                pressure = level;
+            }
+        }
+    }
+
+    private static void raiseSystemPressure(int level) {
+        synchronized (LOCK) {
+            if (level > systemPressure) {
+                systemPressure = level;
+            }
+            raisePressure(level);
+        }
+    }
+
+    /**
+     * @return smallest scale factor controllers may use under the current pressure
+     */
+    static float getMinScaleFactor() {
+        switch (pressure) {
+            case PRESSURE_CRITICAL:
+                return CRITICAL_SCALE_FACTOR;
+            case PRESSURE_MODERATE:
+                return MODERATE_SCALE_FACTOR;
+            default:
+                return 0f;
+        }
+    }
+
+    /**
+     * @param bytes memory all blurs together may hold, pooled bitmaps included.
+     *              Default is {@link #DEFAULT_MAX_BYTES}
+     */
+    public static void setMaxBytes(long bytes) {
+        synchronized (LOCK) {
+            maxBytes = bytes;
+        }
+        onAllocated(0);
+    }
+
+    public static long getMaxBytes() {
+        synchronized (LOCK) {
+            return maxBytes;
+        }
+    }
+
+    /**
+     * @return bytes held by shown blurs: their bitmaps and the buffers of their algorithms
+     */
+    public static long getUsedBytes() {
+        synchronized (LOCK) {
+            return usedBytes;
+        }
+    }
+
+    /**
+     * @return bytes of bitmaps kept for reuse
+     */
+    public static long getPooledBytes() {
+        return BlurBitmapPool.get().getPooledBytes();
+    }
+
+    /**
+     * @return one of {@link #PRESSURE_NONE}, {@link #PRESSURE_MODERATE}, {@link #PRESSURE_CRITICAL}
+     */
+    public static int getPressure() {
+        return pressure;
+    }
+}
@@ -0,0 +1,216 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import androidx.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Aggregates what the blur pipeline costs, for dashboards and regression tracking.
+ * <p>
+ * Attach with {@link BlurViewFacade#setBlurMetrics(BlurMetrics)}; one instance can be shared
+ * by several BlurViews. Stage times go into fixed-bucket histograms, a quarter of an octave
+ * wide each, so recording never allocates and percentiles are accurate to about 19%.
+ * Recording and reading may happen on different threads.
+ */
+public final class BlurMetrics {
+
+    /**
+     * Drawing the root View into the capture bitmap
+     */
+    public static final int STAGE_CAPTURE = 0;
+    /**
+     * Blur algorithm call, including the blend it does itself
+     */
+    public static final int STAGE_BLUR = 1;
+    /**
+     * Overlay color blending done by the blur algorithm in a pass of its own
+     */
+    public static final int STAGE_BLEND = 2;
+    /**
+     * Drawing the blurred bitmap on BlurView's canvas
+     */
+    public static final int STAGE_COMPOSITE = 3;
+
+    private static final int STAGES = 4;
+
+    @IntDef({STAGE_CAPTURE, STAGE_BLUR, STAGE_BLEND, STAGE_COMPOSITE})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Stage {
+    }
+
+    // Buckets start at 1024ns, 4 per octave, up to about 4s
+    private static final int MIN_SHIFT = 10;
+    private static final int SUB_BUCKETS = 4;
+    private static final int OCTAVES = 22;
+    private static final int BUCKETS = OCTAVES * SUB_BUCKETS + 1;
+
+    private final long[][] histograms = new long[STAGES][BUCKETS];
+    private final long[] totalNanos = new long[STAGES];
+    private final long[] maxNanos = new long[STAGES];
+    private final long[] samples = new long[STAGES];
+
+    private long frames;
+    private long skippedFrames;
+    private long reallocations;
+    private long copiedBytes;
+    private long tintPassBytes;
+    private int bitmapWidth;
+    private int bitmapHeight;
+
+    synchronized void recordStage(@Stage int stage, long nanos) {
+        histograms[stage][bucketOf(nanos)]++;
+        totalNanos[stage] += nanos;
+        samples[stage]++;
+        if (nanos > maxNanos[stage]) {
+            maxNanos[stage] = nanos;
+        }
+    }
+
+    /**
+     * Frame on which capture ran
+     */
+    synchronized void recordFrame() {
+        frames++;
+    }
+
+    /**
+     * Frame whose blur was skipped, because the content didn't change or a blur was still in flight
+     */
+    synchronized void recordSkippedFrame() {
+        skippedFrames++;
+    }
+
+    synchronized void recordReallocation(int width, int height) {
+        reallocations++;
+        bitmapWidth = width;
+        bitmapHeight = height;
+    }
+
+    /**
+     * Bytes of pixels copied between the bitmap and the algorithm's own buffers
+     */
+    synchronized void recordCopiedBytes(long bytes) {
+        copiedBytes += bytes;
+    }
+
+    /**
+     * Bytes of pixels read and written by passes which only apply a color: the barrier color
+     * drawn over the capture and overlay blends done outside of the blur passes
+     */
+    synchronized void recordTintPassBytes(long bytes) {
+        tintPassBytes += bytes;
+    }
+
+    public synchronized long getFrameCount() {
+        return frames;
+    }
+
+    public synchronized long getSkippedFrameCount() {
+        return skippedFrames;
+    }
+
+    public synchronized long getReallocationCount() {
+        return reallocations;
+    }
+
+    public synchronized long getCopiedBytes() {
+        return copiedBytes;
+    }
+
+    /**
+     * @return bytes read and written by passes which only apply the barrier or overlay color.
+     * Stays at 0 with a {@link FusedBlurAlgorithm}, which applies both within its blur.
+     */
+    public synchronized long getTintPassBytes() {
+        return tintPassBytes;
+    }
+
+    /**
+     * @return width of the capture bitmap after the last reallocation
+     */
+    public synchronized int getBitmapWidth() {
+        return bitmapWidth;
+    }
+
+    /**
+     * @return height of the capture bitmap after the last reallocation
+     */
+    public synchronized int getBitmapHeight() {
+        return bitmapHeight;
+    }
+
+    public synchronized long getSampleCount(@Stage int stage) {
+        return samples[stage];
+    }
+
+    public synchronized long getMeanNanos(@Stage int stage) {
+        return samples[stage] == 0 ? 0 : totalNanos[stage] / samples[stage];
+    }
+
+    public synchronized long getMaxNanos(@Stage int stage) {
+        return maxNanos[stage];
+    }
+
+    /**
+     * @param percentile in [0, 100]
+     * @return upper bound of the bucket the percentile falls into, 0 if nothing was recorded
+     */
+    public synchronized long getPercentileNanos(@Stage int stage, float percentile) {
+        long count = samples[stage];
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(count * Math.min(100f, percentile) / 100f));
+        long[] histogram = histograms[stage];
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += histogram[bucket];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(bucket), maxNanos[stage]);
+            }
+        }
+        return maxNanos[stage];
+    }
+
+    public synchronized void reset() {
+        for (int stage = 0; stage < STAGES; stage++) {
+            long[] histogram = histograms[stage];
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                histogram[bucket] = 0;
+            }
+            totalNanos[stage] = 0;
+            maxNanos[stage] = 0;
+            samples[stage] = 0;
+        }
+        frames = 0;
+        skippedFrames = 0;
+        reallocations = 0;
+        copiedBytes = 0;
+        tintPassBytes = 0;
+    }
+
+    private static int bucketOf(long nanos) {
+        if (nanos < (1L << MIN_SHIFT)) {
+            return 0;
+        }
+        int octave = 63 - Long.numberOfLeadingZeros(nanos);
+        // Two bits below the leading one pick the sub-bucket
+        int sub = (int) (nanos >>> (octave - 2)) & (SUB_BUCKETS - 1);
+        int bucket = (octave - MIN_SHIFT) * SUB_BUCKETS + sub + 1;
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket == 0) {
+            return 1L << MIN_SHIFT;
+        }
+        if (bucket == BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        int octave = (bucket - 1) / SUB_BUCKETS + MIN_SHIFT;
+        int sub = (bucket - 1) % SUB_BUCKETS;
+        return (1L << octave) + ((long) (sub + 1) << (octave - 2));
+    }
+}
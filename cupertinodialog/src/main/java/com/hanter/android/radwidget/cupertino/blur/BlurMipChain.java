@@ -0,0 +1,233 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import android.animation.Animator;
+import android.animation.AnimatorListenerAdapter;
+import android.animation.ValueAnimator;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+
+import androidx.annotation.ColorInt;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Animates the blur radius without blurring every frame.
+ * <p>
+ * One capture is blurred into a small pyramid of levels when the animation starts. The top level is
+ * the owner's regular blurred bitmap, at the largest radius of the animation. Below it, levels at
+ * a half and a quarter of that radius are blurred at half the capture size, which costs about
+ * a quarter of a blur each. An intermediate radius is drawn by cross-fading the two levels around it,
+ * under the lowest level the blur fades out to nothing.
+ * <p>
+ * Level radii are relative to the top one, so they hold for view and bitmap pixels alike.
+ */
+final class BlurMipChain {
+
+    interface Host {
+
+        /**
+         * The animated radius changed, the blur has to be drawn again
+         */
+        void onRadiusFrame();
+
+        /**
+         * The animation ended or was cancelled, levels are released already
+         *
+         * @param radius radius the animation stopped at
+         */
+        void onRadiusAnimationEnd(float radius);
+    }
+
+    // Radii of the levels under the top one, relative to the top radius
+    private static final float[] LEVEL_RADII = {0.25f, 0.5f};
+    private static final int LEVEL_DOWNSCALE = 2;
+
+    private final Host host;
+    private final Bitmap[] levels = new Bitmap[LEVEL_RADII.length];
+    private final Canvas[] levelCanvases = new Canvas[LEVEL_RADII.length];
+    private final Paint downscalePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    @Nullable
+    private ValueAnimator animator;
+    private float radius;
+    private float topRadius;
+    private boolean built;
+
+    BlurMipChain(@NonNull Host host) {
+        this.host = host;
+    }
+
+    /**
+     * Starts animating the radius, replacing a running animation. Levels are built by the owner
+     * with its next capture, see {@link #build}.
+     */
+    void animate(float from, float to, long durationMs) {
+        cancel();
+        radius = from;
+        topRadius = Math.max(from, to);
+
+        final ValueAnimator animator = ValueAnimator.ofFloat(from, to);
+        animator.setDuration(durationMs);
+        animator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+            @Override
+            public void onAnimationUpdate(ValueAnimator animation) {
+                radius = (Float) animation.getAnimatedValue();
+                host.onRadiusFrame();
+            }
+        });
+        animator.addListener(new AnimatorListenerAdapter() {
+            @Override
+            public void onAnimationEnd(Animator animation) {
+                // Also called after a cancel, replaced animations end silently
+                if (BlurMipChain.this.animator != animation) {
+                    return;
+                }
+                BlurMipChain.this.animator = null;
+                releaseLevels();
+                host.onRadiusAnimationEnd(radius);
+            }
+        });
+        this.animator = animator;
+        animator.start();
+    }
+
+    /**
+     * Stops a running animation where it is, without notifying the host, and releases the levels
+     */
+    void cancel() {
+        ValueAnimator animator = this.animator;
+        this.animator = null;
+        if (animator != null) {
+            animator.cancel();
+        }
+        releaseLevels();
+    }
+
+    boolean isAnimating() {
+        return animator != null;
+    }
+
+    /**
+     * @return true if the levels of the running animation are built, and the owner's capture is frozen
+     */
+    boolean hasLevels() {
+        return built;
+    }
+
+    float getRadius() {
+        return radius;
+    }
+
+    /**
+     * @return largest radius of the running animation, which the owner blurs its top level with
+     */
+    float getTopRadius() {
+        return topRadius;
+    }
+
+    /**
+     * Blurs the levels under the top one from a capture, before it is blurred in place into the top level
+     *
+     * @param bitmapRadius top radius in pixels of the capture
+     * @param barrierColor barrier color the algorithm applies, same as for the top level
+     * @param blendMode    blend mode the algorithm applies, same as for the top level
+     */
+    void build(@NonNull Bitmap capture, @NonNull BlurAlgorithm algorithm, float bitmapRadius,
+               @ColorInt int barrierColor, @ColorInt int overlayColor, int blendMode) {
+        int width = (capture.getWidth() + LEVEL_DOWNSCALE - 1) / LEVEL_DOWNSCALE;
+        int height = (capture.getHeight() + LEVEL_DOWNSCALE - 1) / LEVEL_DOWNSCALE;
+        for (int i = 0; i < levels.length; i++) {
+            Bitmap level = levels[i];
+            if (level == null || level.getWidth() != width || level.getHeight() != height) {
+                BlurCapture.releaseBitmap(level);
+                level = BlurCapture.acquireBitmap(width, height, capture.getConfig());
+                levels[i] = level;
+                levelCanvases[i] = new Canvas(level);
+            }
+
+            Canvas canvas = levelCanvases[i];
+            level.eraseColor(Color.TRANSPARENT);
+            canvas.save();
+            canvas.scale(1f / LEVEL_DOWNSCALE, 1f / LEVEL_DOWNSCALE);
+            canvas.drawBitmap(capture, 0, 0, downscalePaint);
+            canvas.restore();
+
+            float levelRadius = bitmapRadius * LEVEL_RADII[i] / LEVEL_DOWNSCALE;
+            Bitmap blurred = AbstractBlurController.blur(algorithm, level, levelRadius,
+                    barrierColor, overlayColor, blendMode);
+            if (blurred != level) {
+                level.eraseColor(Color.TRANSPARENT);
+                canvas.drawBitmap(blurred, 0, 0, null);
+            }
+        }
+        built = true;
+    }
+
+    /**
+     * Draws the blur at the animated radius
+     *
+     * @param canvas canvas mapped to the pixels of the capture
+     * @param top    top level, the owner's blurred bitmap
+     * @return opacity the blur was drawn with, anything drawn over it should fade along
+     */
+    float draw(@NonNull Canvas canvas, @NonNull Bitmap top, @NonNull Paint paint) {
+        float position = topRadius > 0 ? radius / topRadius : 1f;
+        int alpha = paint.getAlpha();
+        float opacity = 1f;
+        if (position <= LEVEL_RADII[0]) {
+            opacity = position / LEVEL_RADII[0];
+            drawLevel(canvas, 0, top, paint, alpha, opacity);
+        } else {
+            int lower = 0;
+            while (lower + 1 < LEVEL_RADII.length && position > LEVEL_RADII[lower + 1]) {
+                lower++;
+            }
+            float lowerRadius = LEVEL_RADII[lower];
+            float upperRadius = lower + 1 < LEVEL_RADII.length ? LEVEL_RADII[lower + 1] : 1f;
+            drawLevel(canvas, lower, top, paint, alpha, 1f);
+            drawLevel(canvas, lower + 1, top, paint, alpha,
+                    Math.min(1f, (position - lowerRadius) / (upperRadius - lowerRadius)));
+        }
+        paint.setAlpha(alpha);
+        return opacity;
+    }
+
+    private void drawLevel(Canvas canvas, int index, Bitmap top, Paint paint, int alpha, float opacity) {
+        paint.setAlpha(Math.round(alpha * opacity));
+        if (index == levels.length) {
+            canvas.drawBitmap(top, 0, 0, paint);
+            return;
+        }
+        canvas.save();
+        canvas.scale(LEVEL_DOWNSCALE, LEVEL_DOWNSCALE);
+        canvas.drawBitmap(levels[index], 0, 0, paint);
+        canvas.restore();
+    }
+
+    /**
+     * @return color with its alpha scaled by the opacity
+     */
+    @ColorInt
+    static int fade(@ColorInt int color, float opacity) {
+        if (opacity >= 1f) {
+            return color;
+        }
+        return Color.argb(Math.round(Color.alpha(color) * opacity),
+                Color.red(color), Color.green(color), Color.blue(color));
+    }
+
+    /**
+     * Releases the levels, e.g. when the owner's buffers are reallocated. They are built again with
+     * the next capture if the animation is still running.
+     */
+    void releaseLevels() {
+        for (int i = 0; i < levels.length; i++) {
+            BlurCapture.releaseBitmap(levels[i]);
+            levels[i] = null;
+            levelCanvases[i] = null;
+        }
+        built = false;
+    }
+}
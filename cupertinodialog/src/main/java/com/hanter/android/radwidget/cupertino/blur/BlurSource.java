@@ -0,0 +1,614 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.view.Choreographer;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.hanter.android.radwidget.cupertino.CupertinoTrace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Blurred backdrop of a root View, shared by all BlurViews set up with it.
+ * <p>
+ * The part of the root under the attached BlurViews is captured and blurred once per frame, together with
+ * the margin the blur reaches into, attached BlurViews only draw the part under themselves,
+ * see {@link BlurView#setupWith(BlurSource)}. Capture and blur cost depend on the number of roots,
+ * not the number of BlurViews, which pays off as soon as two BlurViews blur the same root,
+ * e.g. an alert over an action sheet, or several panels in a window.
+ * <p>
+ * The blur is updated when the root's tree is about to draw, like {@link BlurViewFacade#setSourceDrivenUpdate(boolean)}
+ * does, and skipped if the capture didn't change. Radius, algorithm, frame clear drawable and metrics
+ * belong to the source, barrier and overlay colors stay with each BlurView.
+ * <p>
+ * While BlurViews move, e.g. with a dialog sliding in or out, {@link #beginAnimation()} keeps the blurred root
+ * as it is and BlurViews only sample it at their new position each frame. The whole root is captured once
+ * for it, so the whole travel area is covered.
+ * <p>
+ * {@link #animateBlurRadius(float, long)} works the same way, the root is captured once into
+ * the levels of a {@link BlurMipChain} and BlurViews draw cross-fades of them.
+ * <p>
+ * Buffers are only held while at least one BlurView is attached. When the last one detaches,
+ * the algorithm is destroyed as well, set a new one for the next BlurViews. Must be used on the main thread.
+ */
+@MainThread
+public final class BlurSource {
+
+    // Bitmap width should be divisible by ROUNDING_VALUE to meet stride requirement, see BlurCapture
+    private static final int ROUNDING_VALUE = 64;
+    private static final BlurAlgorithm NO_BLUR = new NoOpBlurAlgorithm();
+
+    // Holds a source only while BlurViews are attached, it references its root strongly
+    private static final Map<ViewGroup, BlurSource> SOURCES = new WeakHashMap<>();
+
+    private final ViewGroup rootView;
+    // Created by of(), registered in SOURCES while attached
+    private boolean shared;
+    private final List<SharedBlurController> controllers = new ArrayList<>();
+    private final ContentChangeDetector changeDetector = new ContentChangeDetector();
+    private final BlurMipChain mipChain = new BlurMipChain(new BlurMipChain.Host() {
+        @Override
+        public void onRadiusFrame() {
+            notifyControllers();
+        }
+
+        @Override
+        public void onRadiusAnimationEnd(float radius) {
+            blurRadius = radius;
+            frameGeneration++;
+            notifyControllers();
+        }
+    });
+
+    private BlurAlgorithm blurAlgorithm = new NoOpBlurAlgorithm();
+    // Critical memory pressure, blurAlgorithm is kept but not used
+    private boolean blurSuspended;
+    @Nullable
+    private BlurMetrics metrics;
+    @Nullable
+    private Drawable frameClearDrawable;
+    private float blurRadius = BlurController.DEFAULT_BLUR_RADIUS;
+
+    // Capture target
+    @Nullable
+    private Bitmap captureBitmap;
+    @Nullable
+    private Canvas captureCanvas;
+    // Last blurred result
+    @Nullable
+    private Bitmap blurredBitmap;
+    @Nullable
+    private Canvas blurredCanvas;
+    // Something was blurred into the current buffers
+    private boolean hasResult;
+
+    private float scaleFactor;
+    private float scaleX;
+    private float scaleY;
+    // Part of the root in the buffers, in root coordinates
+    private final Rect region = new Rect();
+    private final Rect wantedRegion = new Rect();
+    private final int[] rootLocation = new int[2];
+
+    private int animationDepth;
+    private long frameGeneration;
+    private long blurredGeneration = -1;
+    private long blurCount;
+
+    private final ViewTreeObserver.OnPreDrawListener drawListener = new ViewTreeObserver.OnPreDrawListener() {
+        @Override
+        public boolean onPreDraw() {
+            frameGeneration++;
+            long count = blurCount;
+            update();
+            // BlurViews may live in other windows, which don't redraw by themselves
+            if (blurCount != count) {
+                notifyControllers();
+            }
+            return true;
+        }
+    };
+
+    // Moving a View only changes its render properties, BlurViews have to draw again to sample their new position
+    private final Choreographer.FrameCallback animationFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (animationDepth == 0) {
+                return;
+            }
+            notifyControllers();
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    };
+
+    /**
+     * @param rootView root to blur, see {@link BlurView#setupWith(ViewGroup)}
+     */
+    public BlurSource(@NonNull ViewGroup rootView) {
+        this.rootView = rootView;
+    }
+
+    /**
+     * @return source of the given root shared within the process, created on first use.
+     * A source is forgotten once its last BlurView detaches, so it doesn't keep the root alive.
+     */
+    @NonNull
+    public static BlurSource of(@NonNull ViewGroup rootView) {
+        BlurSource source = SOURCES.get(rootView);
+        if (source == null) {
+            source = new BlurSource(rootView);
+            source.shared = true;
+            SOURCES.put(rootView, source);
+        }
+        return source;
+    }
+
+    @NonNull
+    public ViewGroup getRootView() {
+        return rootView;
+    }
+
+    /**
+     * @param radius blur radius, in pixels of a capture downscaled by {@link BlurController#DEFAULT_SCALE_FACTOR}
+     */
+    public BlurSource setBlurRadius(float radius) {
+        this.blurRadius = radius;
+        return this;
+    }
+
+    /**
+     * @see BlurViewFacade#animateBlurRadius(float, long)
+     */
+    public BlurSource animateBlurRadius(float radius, long durationMs) {
+        float from = mipChain.isAnimating() ? mipChain.getRadius() : blurRadius;
+        mipChain.animate(from, radius, durationMs);
+        // Blurred with the next capture
+        blurRadius = mipChain.getTopRadius();
+        frameGeneration++;
+        notifyControllers();
+        return this;
+    }
+
+    /**
+     * @param algorithm replaces the current algorithm, which is destroyed
+     */
+    public BlurSource setBlurAlgorithm(@NonNull BlurAlgorithm algorithm) {
+        if (algorithm == blurAlgorithm) {
+            return this;
+        }
+        blurAlgorithm.destroy();
+        blurAlgorithm = algorithm;
+        if (algorithm instanceof MetricsAware) {
+            ((MetricsAware) algorithm).setBlurMetrics(metrics);
+        }
+        // Same capture blurs differently now
+        changeDetector.reset();
+        return this;
+    }
+
+    /**
+     * @see BlurViewFacade#setFrameClearDrawable(Drawable)
+     */
+    public BlurSource setFrameClearDrawable(@Nullable Drawable frameClearDrawable) {
+        this.frameClearDrawable = frameClearDrawable;
+        return this;
+    }
+
+    /**
+     * @param metrics collects capture and blur times of this source, null to stop collecting
+     */
+    public BlurSource setBlurMetrics(@Nullable BlurMetrics metrics) {
+        this.metrics = metrics;
+        if (blurAlgorithm instanceof MetricsAware) {
+            ((MetricsAware) blurAlgorithm).setBlurMetrics(metrics);
+        }
+        return this;
+    }
+
+    /**
+     * Starts the animation mode: the root is no longer captured and blurred, except if there is
+     * no blurred root yet, and attached BlurViews are redrawn every frame at their current position.
+     * Changes of the root show up once the animation ends. Calls nest, each must be paired
+     * with {@link #endAnimation()}.
+     */
+    public void beginAnimation() {
+        if (animationDepth++ == 0) {
+            Choreographer.getInstance().postFrameCallback(animationFrameCallback);
+        }
+    }
+
+    /**
+     * Ends the animation mode started by {@link #beginAnimation()}, the root is captured again with the next frame
+     */
+    public void endAnimation() {
+        if (animationDepth == 0) {
+            return;
+        }
+        animationDepth--;
+        if (animationDepth == 0) {
+            Choreographer.getInstance().removeFrameCallback(animationFrameCallback);
+            frameGeneration++;
+            for (int i = 0; i < controllers.size(); i++) {
+                controllers.get(i).onAnimationEnded();
+            }
+        }
+    }
+
+    public boolean isAnimating() {
+        return animationDepth > 0;
+    }
+
+    /**
+     * @return number of times the root was actually captured and blurred
+     */
+    public long getBlurCount() {
+        return blurCount;
+    }
+
+    /**
+     * @return number of BlurViews currently drawing from this source
+     */
+    public int getAttachedCount() {
+        return controllers.size();
+    }
+
+    void attach(@NonNull SharedBlurController controller) {
+        if (controllers.contains(controller)) {
+            return;
+        }
+        controllers.add(controller);
+        if (controllers.size() == 1) {
+            // Attached again after it was forgotten
+            if (shared && !SOURCES.containsKey(rootView)) {
+                SOURCES.put(rootView, this);
+            }
+            BlurMemoryGovernor.register(rootView.getContext());
+            rootView.getViewTreeObserver().addOnPreDrawListener(drawListener);
+        }
+    }
+
+    void detach(@NonNull SharedBlurController controller) {
+        if (!controllers.remove(controller) || !controllers.isEmpty()) {
+            return;
+        }
+        rootView.getViewTreeObserver().removeOnPreDrawListener(drawListener);
+        mipChain.cancel();
+        releaseBuffers();
+        blurredGeneration = -1;
+        // Like a BlurView's own controller does when it's detached
+        blurAlgorithm.destroy();
+        blurAlgorithm = new NoOpBlurAlgorithm();
+        // The value references its key, the map entry would keep the root and its Activity alive
+        if (SOURCES.get(rootView) == this) {
+            SOURCES.remove(rootView);
+        }
+    }
+
+    /**
+     * Captures and blurs the root, at most once per frame of the root.
+     * Before the first frame of the root any call captures, so attached BlurViews have something to show,
+     * so does a call after BlurViews moved out of the captured part.
+     */
+    void update() {
+        // Radius animations cross-fade the levels of one capture
+        if (controllers.isEmpty() || mipChain.hasLevels()) {
+            return;
+        }
+        if (!computeRegion(wantedRegion)) {
+            return;
+        }
+        applyMemoryPressure();
+        // Moving BlurViews sample the blurred root as it is
+        boolean covered = hasResult && region.contains(wantedRegion);
+        if (covered && (blurredGeneration == frameGeneration || animationDepth > 0)) {
+            return;
+        }
+        blurredGeneration = frameGeneration;
+        if (!ensureBuffers(wantedRegion)) {
+            return;
+        }
+
+        if (metrics != null) {
+            metrics.recordFrame();
+        }
+        long start = System.nanoTime();
+        capture();
+        long captured = System.nanoTime();
+        if (metrics != null) {
+            metrics.recordStage(BlurMetrics.STAGE_CAPTURE, captured - start);
+        }
+        if (mipChain.isAnimating()) {
+            mipChain.build(captureBitmap, getActiveAlgorithm(), getBitmapRadius(), Color.TRANSPARENT,
+                    Color.TRANSPARENT, BlurView.NONE);
+        }
+
+        if (getActiveAlgorithm().canModifyBitmap() && blurredBitmap != null
+                && !changeDetector.hasChanged(captureBitmap, blurParamsHash())) {
+            if (metrics != null) {
+                metrics.recordSkippedFrame();
+            }
+            return;
+        }
+
+        blurAndSave();
+        blurCount++;
+        hasResult = true;
+        if (metrics != null) {
+            metrics.recordStage(BlurMetrics.STAGE_BLUR, System.nanoTime() - captured);
+        }
+    }
+
+    /**
+     * @return latest blurred root, null if there is none yet
+     */
+    @Nullable
+    Bitmap getBlurredBitmap() {
+        return blurredBitmap != null ? blurredBitmap : captureBitmap;
+    }
+
+    /**
+     * Draws the latest blurred root, or the running radius animation
+     *
+     * @param canvas canvas mapped to the pixels of the blurred root
+     * @return opacity the blur was drawn with, anything drawn over it should fade along
+     */
+    float drawBlurred(@NonNull Canvas canvas, @NonNull Bitmap bitmap, @NonNull Paint paint) {
+        if (mipChain.hasLevels()) {
+            return mipChain.draw(canvas, bitmap, paint);
+        }
+        canvas.drawBitmap(bitmap, 0, 0, paint);
+        return 1f;
+    }
+
+    /**
+     * @return true while a radius animation is drawn from the levels of one capture
+     */
+    boolean hasRadiusLevels() {
+        return mipChain.hasLevels();
+    }
+
+    private void notifyControllers() {
+        for (int i = 0; i < controllers.size(); i++) {
+            controllers.get(i).onSourceUpdated();
+        }
+    }
+
+    /**
+     * @return left of the blurred bitmap in root coordinates
+     */
+    int getRegionLeft() {
+        return region.left;
+    }
+
+    /**
+     * @return top of the blurred bitmap in root coordinates
+     */
+    int getRegionTop() {
+        return region.top;
+    }
+
+    /**
+     * @return root pixels per bitmap pixel, horizontally
+     */
+    float getScaleX() {
+        return scaleX;
+    }
+
+    /**
+     * @return root pixels per bitmap pixel, vertically
+     */
+    float getScaleY() {
+        return scaleY;
+    }
+
+    /**
+     * @return true if the canvas is one the root is captured with, BlurViews inside the root must not draw on it
+     */
+    boolean isCaptureCanvas(Canvas canvas) {
+        return canvas != null && (canvas == captureCanvas || canvas == blurredCanvas);
+    }
+
+    /**
+     * Computes the part of the root to capture: the bounds of the attached BlurViews and the margin
+     * the blur reaches into, the whole root while BlurViews move
+     *
+     * @return false if there is nothing to capture
+     */
+    private boolean computeRegion(Rect out) {
+        int width = rootView.getWidth();
+        int height = rootView.getHeight();
+        if (animationDepth > 0) {
+            out.set(0, 0, width, height);
+            return !out.isEmpty();
+        }
+
+        rootView.getLocationOnScreen(rootLocation);
+        out.setEmpty();
+        for (int i = 0; i < controllers.size(); i++) {
+            controllers.get(i).addBounds(out, rootLocation[0], rootLocation[1]);
+        }
+        if (out.isEmpty()) {
+            return false;
+        }
+        float targetScale = getTargetScale();
+        int margin = (int) Math.ceil(BlurCapture.marginFor(
+                blurRadius * BlurController.DEFAULT_SCALE_FACTOR / targetScale) * targetScale);
+        out.inset(-margin, -margin);
+        return out.intersect(0, 0, width, height);
+    }
+
+    private float getTargetScale() {
+        return Math.max(BlurController.DEFAULT_SCALE_FACTOR, BlurMemoryGovernor.getMinScaleFactor());
+    }
+
+    /**
+     * (Re)allocates buffers if the size of the region or the scale factor changed
+     *
+     * @param wanted part of the root to capture, in root coordinates
+     * @return false if there is nothing to capture
+     */
+    private boolean ensureBuffers(Rect wanted) {
+        int width = wanted.width();
+        int height = wanted.height();
+        float targetScale = getTargetScale();
+        if (captureBitmap != null && width == region.width() && height == region.height()
+                && targetScale == scaleFactor) {
+            // Same buffers, captured at another position
+            region.set(wanted);
+            return true;
+        }
+
+        releaseBuffers();
+        int scaledWidth = (int) Math.ceil(width / targetScale);
+        if (scaledWidth == 0 || height == 0) {
+            return false;
+        }
+
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.begin(CupertinoTrace.BLUR_ALLOCATE);
+        }
+        region.set(wanted);
+        scaleFactor = targetScale;
+        // The region is stretched over the rounded width, so there is no padding to blur in from the edge.
+        // Height follows the resulting scale, so the blur stays round.
+        int bitmapWidth = scaledWidth % ROUNDING_VALUE == 0
+                ? scaledWidth : scaledWidth - scaledWidth % ROUNDING_VALUE + ROUNDING_VALUE;
+        scaleX = (float) width / bitmapWidth;
+        int scaledHeight = Math.max(1, (int) Math.ceil(height / scaleX));
+        scaleY = (float) height / scaledHeight;
+
+        captureBitmap = BlurCapture.acquireBitmap(bitmapWidth, scaledHeight, blurAlgorithm.getSupportedBitmapConfig());
+        captureCanvas = createCanvas(captureBitmap);
+        changeDetector.reset();
+        if (metrics != null) {
+            metrics.recordReallocation(bitmapWidth, scaledHeight);
+        }
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.end();
+        }
+        return true;
+    }
+
+    private Canvas createCanvas(Bitmap bitmap) {
+        Canvas canvas = new Canvas(bitmap);
+        canvas.scale(1 / scaleX, 1 / scaleY);
+        return canvas;
+    }
+
+    private void capture() {
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.begin(CupertinoTrace.BLUR_CAPTURE);
+        }
+        captureBitmap.eraseColor(Color.TRANSPARENT);
+        int saveCount = captureCanvas.save();
+        captureCanvas.translate(-region.left, -region.top);
+        if (frameClearDrawable != null) {
+            frameClearDrawable.draw(captureCanvas);
+        }
+        rootView.draw(captureCanvas);
+        captureCanvas.restoreToCount(saveCount);
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.end();
+        }
+    }
+
+    private void blurAndSave() {
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.begin(CupertinoTrace.BLUR_BLUR);
+        }
+        BlurAlgorithm algorithm = getActiveAlgorithm();
+        captureBitmap = algorithm.blur(captureBitmap, getBitmapRadius());
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.end();
+        }
+
+        if (!algorithm.canModifyBitmap()) {
+            captureCanvas = createCanvas(captureBitmap);
+            blurredBitmap = null;
+            return;
+        }
+
+        // Blurred in place, show it and capture the next frame into the other bitmap
+        if (blurredBitmap == null) {
+            blurredBitmap = BlurCapture.acquireBitmap(captureBitmap.getWidth(), captureBitmap.getHeight(),
+                    captureBitmap.getConfig());
+            blurredCanvas = createCanvas(blurredBitmap);
+        }
+
+        Bitmap bitmap = blurredBitmap;
+        blurredBitmap = captureBitmap;
+        captureBitmap = bitmap;
+
+        Canvas canvas = blurredCanvas;
+        blurredCanvas = captureCanvas;
+        captureCanvas = canvas;
+    }
+
+    private float getBitmapRadius() {
+        return blurRadius * BlurController.DEFAULT_SCALE_FACTOR / scaleX;
+    }
+
+    long getUnchangedFrameCount() {
+        return changeDetector.getUnchangedCount();
+    }
+
+    long getChangedFrameCount() {
+        return changeDetector.getChangedCount();
+    }
+
+    private long blurParamsHash() {
+        long hash = Float.floatToIntBits(blurRadius);
+        // Same pixels at another position of the root are another backdrop
+        hash = hash * 31 + region.left;
+        hash = hash * 31 + region.top;
+        return hash;
+    }
+
+    /**
+     * Same policy as the per-view controllers
+     */
+    private void applyMemoryPressure() {
+        boolean suspend = BlurMemoryGovernor.updatePressure() == BlurMemoryGovernor.PRESSURE_CRITICAL;
+        if (suspend == blurSuspended) {
+            return;
+        }
+        blurSuspended = suspend;
+        if (suspend) {
+            if (blurAlgorithm instanceof CpuBlurAlgorithm) {
+                blurAlgorithm.destroy();
+            }
+        } else {
+            changeDetector.reset();
+            blurredGeneration = -1;
+        }
+    }
+
+    private BlurAlgorithm getActiveAlgorithm() {
+        return blurSuspended ? NO_BLUR : blurAlgorithm;
+    }
+
+    private void releaseBuffers() {
+        BlurCapture.releaseBitmap(captureBitmap);
+        BlurCapture.releaseBitmap(blurredBitmap);
+        captureBitmap = null;
+        captureCanvas = null;
+        blurredBitmap = null;
+        blurredCanvas = null;
+        region.setEmpty();
+        hasResult = false;
+        mipChain.releaseLevels();
+    }
+}
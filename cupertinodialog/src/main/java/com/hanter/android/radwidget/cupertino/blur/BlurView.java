@@ -4,30 +4,42 @@ import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Outline;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
 import android.graphics.RectF;
+import android.os.Build;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewOutlineProvider;
 import android.widget.FrameLayout;
 
 import androidx.annotation.ColorInt;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
 
 import com.hanter.android.radwidget.cupertino.R;
 
 /**
  * FrameLayout that blurs its underlying content.
  * Can have children and draw them over blurred background.
+ * <p>
+ * Round corners are clipped with the View's outline on API 21+, which the renderer does
+ * without an offscreen layer, as long as the overlay blend mode gives the same pixels without one
+ * (see {@link #blendsWithoutLayer(int)}). Otherwise, and on older versions, the view draws into
+ * a layer and cuts the corners out of it.
  */
 public class BlurView extends FrameLayout {
 
     private static final String TAG = BlurView.class.getSimpleName();
 
+    private static final boolean CLIP_TO_OUTLINE = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+
     public static final int NONE = -1;
     public static final int CLEAR = 0;
     public static final int SRC = 1;
@@ -53,11 +65,15 @@ public class BlurView extends FrameLayout {
     private Paint imagePaint;
     private Paint roundPaint;
     private Path roundPath;
+    // Corners cut out of the layer, built once per size
     private Path roundCornerPath;
+    private final RectF arcRect = new RectF();
     RectF rectF;
     BlurController blurController = new NoOpController();
     private boolean round;
     private float roundCornerRadius;
+    // Corners clipped by the outline, without a layer
+    private boolean clipToOutline;
     private float[] radii = new float[8];
 
     @ColorInt
@@ -89,6 +105,7 @@ public class BlurView extends FrameLayout {
         overlayColor = a.getColor(R.styleable.BlurView_blv_overlayColor, Color.TRANSPARENT);
         overlayBlendMode = a.getColor(R.styleable.BlurView_blv_overlayBlendMode, SRC_OVER);
         a.recycle();
+        clipToOutline = CLIP_TO_OUTLINE && blendsWithoutLayer(overlayBlendMode);
 
         roundPaint = new Paint();
         roundPaint.setAntiAlias(true);
@@ -110,11 +127,21 @@ public class BlurView extends FrameLayout {
         imagePaint = new Paint();
         imagePaint.setAntiAlias(true);
         imagePaint.setColor(Color.WHITE);
+
+        if (clipToOutline && round && roundCornerRadius > 0) {
+            setOutlineProvider(new RoundOutlineProvider(roundCornerRadius));
+            setClipToOutline(true);
+        }
     }
 
     @Override
     protected void dispatchDraw(Canvas canvas) {
-        canvas.saveLayer(new RectF(0, 0, getWidth(), getHeight()), imagePaint, Canvas.ALL_SAVE_FLAG);
+        if (clipToOutline) {
+            super.dispatchDraw(canvas);
+            return;
+        }
+
+        canvas.saveLayer(rectF, imagePaint, Canvas.ALL_SAVE_FLAG);
         super.dispatchDraw(canvas);
         drawRoundPath(canvas);
         canvas.restore();
@@ -122,7 +149,14 @@ public class BlurView extends FrameLayout {
 
     @Override
     public void draw(Canvas canvas) {
-        canvas.saveLayer(new RectF(0, 0, getWidth(), getHeight()), imagePaint, Canvas.ALL_SAVE_FLAG);
+        if (clipToOutline) {
+            if (blurController.draw(canvas)) {
+                super.draw(canvas);
+            }
+            return;
+        }
+
+        canvas.saveLayer(rectF, imagePaint, Canvas.ALL_SAVE_FLAG);
         boolean shouldDraw = blurController.draw(canvas);
         if (shouldDraw) {
             super.draw(canvas);
@@ -142,6 +176,14 @@ public class BlurView extends FrameLayout {
         rectF.set(0, 0, w, h);
         roundPath.reset();
         roundPath.addRoundRect(rectF, radii, Path.Direction.CW);
+
+        roundCornerPath.reset();
+        if (!clipToOutline) {
+            addTopLeftPath();
+            addTopRightPath(w);
+            addBottomLeftPath(h);
+            addBottomRightPath(w, h);
+        }
     }
 
     @Override
@@ -172,7 +214,37 @@ public class BlurView extends FrameLayout {
      * @return {@link BlurView} to setup needed params.
      */
     public BlurViewFacade setupWith(@NonNull ViewGroup rootView) {
-        BlurController blurController = new BlockingBlurController(this, rootView);
+        return setupWith(rootView, false);
+    }
+
+    /**
+     * @param rootView          root to start blur from.
+     *                          Can be Activity's root content layout (android.R.id.content)
+     *                          or (preferably) some of your layouts. The lower amount of Views are in the root, the better for performance.
+     * @param blurInBackground  true to blur on a background thread, the main thread only captures the content.
+     *                          The shown blur then lags behind the content by about a frame.
+     * @return {@link BlurView} to setup needed params.
+     */
+    public BlurViewFacade setupWith(@NonNull ViewGroup rootView, boolean blurInBackground) {
+        BlurController blurController = blurInBackground
+                ? new AsyncBlurController(this, rootView)
+                : new BlockingBlurController(this, rootView);
+        this.blurController.destroy();
+        this.blurController = blurController;
+
+        return blurController;
+    }
+
+    /**
+     * Draws the part of a shared blurred root under this view, instead of capturing and blurring it on its own.
+     * Radius, algorithm, frame clear drawable and metrics set through the returned facade
+     * apply to the source, so to every BlurView set up with it.
+     *
+     * @param source blurred root, see {@link BlurSource#of(ViewGroup)}
+     * @return {@link BlurView} to setup needed params.
+     */
+    public BlurViewFacade setupWith(@NonNull BlurSource source) {
+        BlurController blurController = new SharedBlurController(this, source);
         this.blurController.destroy();
         this.blurController = blurController;
 
@@ -188,6 +260,13 @@ public class BlurView extends FrameLayout {
         return blurController.setBlurRadius(radius);
     }
 
+    /**
+     * @see BlurViewFacade#animateBlurRadius(float, long)
+     */
+    public BlurViewFacade animateBlurRadius(float radius, long durationMs) {
+        return blurController.animateBlurRadius(radius, durationMs);
+    }
+
     /**
      * @see BlurViewFacade#setBlurAutoUpdate(boolean)
      */
@@ -202,15 +281,62 @@ public class BlurView extends FrameLayout {
         return blurController.setBlurEnabled(enabled);
     }
 
+    /**
+     * @see BlurViewFacade#setBlurMetrics(BlurMetrics)
+     */
+    public BlurViewFacade setBlurMetrics(@Nullable BlurMetrics metrics) {
+        return blurController.setBlurMetrics(metrics);
+    }
+
+    /**
+     * @return number of times the underlying content was actually captured and blurred.
+     * At most one per frame, no matter how many times this view is drawn.
+     */
+    public long getBlurCount() {
+        return blurController.getBlurCount();
+    }
+
+    /**
+     * @return number of frames where the underlying content didn't change, so blur was skipped
+     */
+    public long getUnchangedFrameCount() {
+        return blurController.getUnchangedFrameCount();
+    }
+
+    /**
+     * @return number of frames where the underlying content changed and had to be blurred again
+     */
+    public long getChangedFrameCount() {
+        return blurController.getChangedFrameCount();
+    }
+
+    /**
+     * Without a layer the overlay blends straight into the window, over the blurred bitmap drawn there.
+     * That gives the same pixels only for modes whose result is opaque wherever the bitmap is.
+     * The others clear or make the window transparent, they need their own layer.
+     */
+    static boolean blendsWithoutLayer(int blendMode) {
+        switch (blendMode) {
+            case NONE:
+            case DST:
+            case SRC_OVER:
+            case SRC_ATOP:
+            case ADD:
+            case MULTIPLY:
+            case SCREEN:
+            case OVERLAY:
+            case DARKEN:
+            case LIGHTEN:
+                return true;
+            default:
+                return false;
+        }
+    }
+
     private void drawRoundPath(Canvas canvas) {
         if (!round || roundCornerRadius <= 0)
             return;
 
-        roundCornerPath.reset();
-        addTopLeftPath();
-        addTopRightPath();
-        addBottomLeftPath();
-        addBottomRightPath();
         canvas.drawPath(roundCornerPath, roundPaint);
     }
 
@@ -219,49 +345,59 @@ public class BlurView extends FrameLayout {
             roundCornerPath.moveTo(0, roundCornerRadius);
             roundCornerPath.lineTo(0, 0);
             roundCornerPath.lineTo(roundCornerRadius, 0);
-            roundCornerPath.arcTo(new RectF(0, 0, roundCornerRadius * 2, roundCornerRadius * 2),
-                    -90, -90);
+            arcRect.set(0, 0, roundCornerRadius * 2, roundCornerRadius * 2);
+            roundCornerPath.arcTo(arcRect, -90, -90);
             roundCornerPath.close();
         }
     }
 
-    private void addTopRightPath() {
+    private void addTopRightPath(int width) {
         if (roundCornerRadius > 0) {
-            int width = getWidth();
             roundCornerPath.moveTo(width - roundCornerRadius, 0);
             roundCornerPath.lineTo(width, 0);
             roundCornerPath.lineTo(width, roundCornerRadius);
-            roundCornerPath.arcTo(new RectF(width - 2 * roundCornerRadius, 0, width,
-                    roundCornerRadius * 2), 0, -90);
+            arcRect.set(width - 2 * roundCornerRadius, 0, width, roundCornerRadius * 2);
+            roundCornerPath.arcTo(arcRect, 0, -90);
             roundCornerPath.close();
         }
     }
 
-    private void addBottomLeftPath() {
+    private void addBottomLeftPath(int height) {
         if (roundCornerRadius > 0) {
-            int height = getHeight();
             roundCornerPath.moveTo(0, height - roundCornerRadius);
             roundCornerPath.lineTo(0, height);
             roundCornerPath.lineTo(roundCornerRadius, height);
-            roundCornerPath.arcTo(new RectF(0, height - 2 * roundCornerRadius,
-                    roundCornerRadius * 2, height), 90, 90);
+            arcRect.set(0, height - 2 * roundCornerRadius, roundCornerRadius * 2, height);
+            roundCornerPath.arcTo(arcRect, 90, 90);
             roundCornerPath.close();
         }
     }
 
-    private void addBottomRightPath() {
+    private void addBottomRightPath(int width, int height) {
         if (roundCornerRadius > 0) {
-            int height = getHeight();
-            int width = getWidth();
             roundCornerPath.moveTo(width - roundCornerRadius, height);
             roundCornerPath.lineTo(width, height);
             roundCornerPath.lineTo(width, height - roundCornerRadius);
-            roundCornerPath.arcTo(new RectF(width - 2 * roundCornerRadius, height - 2
-                    * roundCornerRadius, width, height), 0, 90);
+            arcRect.set(width - 2 * roundCornerRadius, height - 2 * roundCornerRadius, width, height);
+            roundCornerPath.arcTo(arcRect, 0, 90);
             roundCornerPath.close();
         }
     }
 
+    @RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+    private static final class RoundOutlineProvider extends ViewOutlineProvider {
+        private final float radius;
+
+        RoundOutlineProvider(float radius) {
+            this.radius = radius;
+        }
+
+        @Override
+        public void getOutline(View view, Outline outline) {
+            outline.setRoundRect(0, 0, view.getWidth(), view.getHeight(), radius);
+        }
+    }
+
     @Nullable
     PorterDuff.Mode getPorterDuffMode() {
         switch (overlayBlendMode) {
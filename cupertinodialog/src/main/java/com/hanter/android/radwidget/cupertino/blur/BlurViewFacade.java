@@ -22,6 +22,17 @@ public interface BlurViewFacade {
      */
     BlurViewFacade setBlurAutoUpdate(boolean enabled);
 
+    /**
+     * By default blur is updated before every draw of BlurView's own window.
+     * If set to true, blur is updated only when the root View's tree invalidates
+     * (pre-draw, scroll or layout changes of the source), and the blurred bitmap stays frozen otherwise.
+     * Useful when BlurView lives in another window (e.g. a dialog) than its root View.
+     *
+     * @param enabled true to follow the root View's invalidations, false to follow BlurView's own
+     * @return {@link BlurViewFacade}
+     */
+    BlurViewFacade setSourceDrivenUpdate(boolean enabled);
+
     /**
      * Can be set to true to optimize position calculation before blur.
      * By default, BlurView calculates its translation, rotation and scale before each draw call.
@@ -48,10 +59,41 @@ public interface BlurViewFacade {
      */
     BlurViewFacade setBlurRadius(float radius);
 
+    /**
+     * Animates the blur radius from the current one, e.g. from 0 to fade the blur in as a dialog appears.
+     * The content is captured once and blurred into a few levels, about the cost of one blur,
+     * intermediate radii are cross-fades of these levels. The content is frozen meanwhile.
+     * Controllers which blur in the background re-blur every frame instead.
+     *
+     * @param radius     radius to end at, which stays set afterwards
+     * @param durationMs duration of the animation
+     * @return {@link BlurViewFacade}
+     */
+    BlurViewFacade animateBlurRadius(float radius, long durationMs);
+
+    /**
+     * Lets the downscale factor follow the measured capture and blur time.
+     * Slow devices capture a smaller bitmap, fast ones a larger and sharper one.
+     * The blur radius is scaled along, so the blur keeps its size on screen.
+     * Disabled by default, {@link BlurController#DEFAULT_SCALE_FACTOR} is used then.
+     *
+     * @param frameBudgetMs main thread time per frame capture and blur should fit in, e.g. 4.
+     *                      0 disables the adaptation.
+     * @return {@link BlurViewFacade}
+     */
+    BlurViewFacade setAdaptiveScale(float frameBudgetMs);
+
     /**
      * @param algorithm sets the blur algorithm
      * @return {@link BlurViewFacade}
      */
     BlurViewFacade setBlurAlgorithm(BlurAlgorithm algorithm);
 
+    /**
+     * @param metrics collects capture, blur, blend and composite times of this BlurView,
+     *                can be shared between BlurViews. Null to stop collecting. None by default.
+     * @return {@link BlurViewFacade}
+     */
+    BlurViewFacade setBlurMetrics(@Nullable BlurMetrics metrics);
+
 }
@@ -0,0 +1,222 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed pool of worker threads used by the CPU blur kernels.
+ * <p>
+ * A pass over the image is split into contiguous bands (rows or columns),
+ * one per worker. The calling thread always processes the last band itself
+ * and then waits for the others, so a pass never returns before all bands are done.
+ * <p>
+ * Workers are started on the first parallel pass and then wait on one barrier that is
+ * reused for every pass, so running a pass allocates nothing.
+ * <p>
+ * Has no Android dependencies on purpose, so the kernels can be run on a plain JVM.
+ */
+final class BlurWorkers {
+
+    /**
+     * Bands smaller than this are not worth a thread handoff.
+     */
+    private static final int MIN_BAND_SIZE = 16;
+
+    interface Band {
+        /**
+         * @param band index of the band, in [0, {@link #getParallelism()})
+         * @param from first line of the band, inclusive
+         * @param to   last line of the band, exclusive
+         */
+        void run(int band, int from, int to);
+    }
+
+    private static final class Holder {
+        static final BlurWorkers INSTANCE = new BlurWorkers(Runtime.getRuntime().availableProcessors());
+    }
+
+    private final int parallelism;
+    private final ThreadFactory threadFactory = new WorkerThreadFactory();
+
+    // Barrier shared with the workers, guarded by lock. Reused for every run() so a pass doesn't allocate.
+    private final Object lock = new Object();
+    private Worker[] workers;
+    private int generation;
+    private Band task;
+    private int count;
+    private int bands;
+    private int pending;
+    private Throwable failure;
+    private boolean shutDown;
+
+    /**
+     * @return process-wide pool sized to the number of available cores
+     */
+    static BlurWorkers getDefault() {
+        return Holder.INSTANCE;
+    }
+
+    BlurWorkers(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Splits [0, count) into bands and runs them in parallel.
+     * Returns when all bands are done; rethrows the first failure of any band.
+     * <p>
+     * Calls from different threads are serialized, the workers only run one pass at a time.
+     */
+    synchronized void run(int count, Band task) {
+        int bands = Math.min(parallelism, Math.max(1, count / MIN_BAND_SIZE));
+        if (bands == 1 || shutDown) {
+            task.run(0, 0, count);
+            return;
+        }
+        ensureWorkers();
+
+        synchronized (lock) {
+            this.task = task;
+            this.count = count;
+            this.bands = bands;
+            this.pending = bands - 1;
+            this.failure = null;
+            generation++;
+            lock.notifyAll();
+        }
+
+        Throwable t = null;
+        try {
+            runBand(task, bands - 1, count, bands);
+        } catch (Throwable e) {
+            t = e;
+        }
+
+        // Other bands keep writing into the shared buffers, so we can't return before they are done
+        synchronized (lock) {
+            boolean interrupted = false;
+            while (pending > 0) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (t == null) {
+                t = failure;
+            }
+            this.task = null;
+            this.failure = null;
+        }
+
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t != null) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    /**
+     * Lets the worker threads end, for pools that are not used anymore. Later passes run on the calling thread.
+     */
+    synchronized void shutdown() {
+        synchronized (lock) {
+            shutDown = true;
+            generation++;
+            lock.notifyAll();
+        }
+    }
+
+    private void ensureWorkers() {
+        if (workers != null) {
+            return;
+        }
+        workers = new Worker[parallelism - 1];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(i);
+            threadFactory.newThread(workers[i]).start();
+        }
+    }
+
+    private static void runBand(Band task, int band, int count, int bands) {
+        int bandSize = count / bands;
+        int remainder = count % bands;
+        int from = band * bandSize + Math.min(band, remainder);
+        int to = from + bandSize + (band < remainder ? 1 : 0);
+        task.run(band, from, to);
+    }
+
+    /**
+     * Runs band {@code index} of every pass that has more than {@code index + 1} bands
+     */
+    private final class Worker implements Runnable {
+        private final int index;
+
+        Worker(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void run() {
+            int seen = 0;
+            while (true) {
+                Band task;
+                int count;
+                int bands;
+                synchronized (lock) {
+                    while (generation == seen) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException ignored) {
+                            // Daemon thread owned by the pool, there is nothing to stop
+                        }
+                    }
+                    if (shutDown) {
+                        return;
+                    }
+                    seen = generation;
+                    task = BlurWorkers.this.task;
+                    count = BlurWorkers.this.count;
+                    bands = BlurWorkers.this.bands;
+                }
+                if (index >= bands - 1) {
+                    continue;
+                }
+
+                Throwable t = null;
+                try {
+                    runBand(task, index, count, bands);
+                } catch (Throwable e) {
+                    t = e;
+                }
+                synchronized (lock) {
+                    if (t != null && failure == null) {
+                        failure = t;
+                    }
+                    if (--pending == 0) {
+                        lock.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "BlurWorker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Gaussian blur approximated with three box blurs, processed on CPU.
+ * <p>
+ * Cost per pixel is the same for any radius, so the radius can be raised
+ * without making a frame more expensive. Doesn't need RenderScript.
+ */
+public final class BoxBlur extends CpuBlurAlgorithm {
+
+    private final BoxBlurKernel kernel;
+
+    public BoxBlur() {
+        this(BlurWorkers.getDefault());
+    }
+
+    /**
+     * @param workers pool to run the passes on, e.g. a private one to time the algorithm on
+     */
+    BoxBlur(BlurWorkers workers) {
+        kernel = new BoxBlurKernel(workers);
+    }
+
+    /**
+     * @param radius blur radius, interpreted the same way as by {@link RenderScriptBlur}
+     */
+    @Override
+    void blurPixels(int[] pixels, int width, int height, float radius, @Nullable BlendEngine blend) {
+        kernel.blur(pixels, width, height, radius, blend);
+    }
+
+    @Override
+    void releaseBuffers() {
+        kernel.release();
+    }
+
+    @Override
+    long getBufferBytes() {
+        return kernel.getBufferBytes();
+    }
+}
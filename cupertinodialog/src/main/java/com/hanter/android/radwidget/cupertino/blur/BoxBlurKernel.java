@@ -0,0 +1,181 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+/**
+ * Gaussian approximation by three successive box blurs over packed 32 bit pixels.
+ * <p>
+ * Every box pass is a sliding window with running sums, so the cost per pixel
+ * doesn't depend on the radius. Box widths are picked to best match the
+ * Gaussian sigma of the requested radius (see {@link #boxesForGauss(float, int[])}).
+ * <p>
+ * Like {@link StackBlurKernel}, all channels are treated the same way and
+ * passes are split into bands on {@link BlurWorkers}. An optional {@link BlendEngine}
+ * is applied as the last vertical pass writes its output.
+ */
+final class BoxBlurKernel {
+
+    static final int PASSES = 3;
+
+    private final BlurWorkers workers;
+    private final int[] boxes = new int[PASSES];
+
+    private int[] scratch = new int[0];
+
+    // Arguments of the current pass, read by the bands below so they don't have to be allocated per call
+    private int[] src;
+    private int[] dst;
+    private int width;
+    private int height;
+    private int boxRadius;
+    private BlendEngine blend;
+
+    private final BlurWorkers.Band rowPass = new BlurWorkers.Band() {
+        @Override
+        public void run(int band, int from, int to) {
+            for (int y = from; y < to; y++) {
+                boxLine(src, dst, y * width, 1, width, boxRadius, null);
+            }
+        }
+    };
+
+    private final BlurWorkers.Band columnPass = new BlurWorkers.Band() {
+        @Override
+        public void run(int band, int from, int to) {
+            for (int x = from; x < to; x++) {
+                boxLine(src, dst, x, width, height, boxRadius, blend);
+            }
+        }
+    };
+
+    BoxBlurKernel(BlurWorkers workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * Same mapping as ScriptIntrinsicBlur uses, so radii stay interchangeable between algorithms
+     */
+    static float radiusToSigma(float radius) {
+        return 0.4f * radius + 0.6f;
+    }
+
+    /**
+     * Picks the widths of {@code sizes.length} box filters, each an odd number,
+     * whose successive application has the variance closest to the given sigma.
+     *
+     * @param sizes receives the box widths
+     */
+    static void boxesForGauss(float sigma, int[] sizes) {
+        int n = sizes.length;
+        double wIdeal = Math.sqrt(12.0 * sigma * sigma / n + 1);
+        int wl = (int) Math.floor(wIdeal);
+        if (wl % 2 == 0) {
+            wl--;
+        }
+        int wu = wl + 2;
+
+        double mIdeal = (12.0 * sigma * sigma - n * wl * wl - 4.0 * n * wl - 3.0 * n) / (-4.0 * wl - 4);
+        long m = Math.round(mIdeal);
+
+        for (int i = 0; i < n; i++) {
+            sizes[i] = i < m ? wl : wu;
+        }
+    }
+
+    /**
+     * Blurs pixels in place
+     *
+     * @param pixels packed pixels, row by row, at least width * height long
+     * @param radius blur radius in pixels
+     * @param blend  applied to every output pixel, null for none
+     */
+    void blur(int[] pixels, int width, int height, float radius, BlendEngine blend) {
+        if (scratch.length < width * height) {
+            scratch = new int[width * height];
+        }
+
+        boxesForGauss(radiusToSigma(radius), boxes);
+        int last = -1;
+        for (int i = 0; i < PASSES; i++) {
+            if (boxes[i] > 1) {
+                last = i;
+            }
+        }
+        this.width = width;
+        this.height = height;
+        try {
+            for (int i = 0; i <= last; i++) {
+                boxRadius = (boxes[i] - 1) / 2;
+                if (boxRadius > 0) {
+                    src = pixels;
+                    dst = scratch;
+                    workers.run(height, rowPass);
+
+                    src = scratch;
+                    dst = pixels;
+                    this.blend = i == last ? blend : null;
+                    workers.run(width, columnPass);
+                }
+            }
+        } finally {
+            src = null;
+            dst = null;
+            this.blend = null;
+        }
+        if (last < 0 && blend != null) {
+            blend.blend(pixels, 0, width * height);
+        }
+    }
+
+    void release() {
+        scratch = new int[0];
+    }
+
+    /**
+     * @return bytes held by the buffers kept between calls
+     */
+    long getBufferBytes() {
+        return 4L * scratch.length;
+    }
+
+    /**
+     * Box blurs one row or column, clamping at the edges
+     *
+     * @param step  distance between two neighbour pixels of the line
+     * @param blend applied to every output pixel, null for none
+     */
+    private static void boxLine(int[] src, int[] dst, int offset, int step, int length, int r,
+                                BlendEngine blend) {
+        final int last = length - 1;
+        final long mul = (1L << 32) / (2 * r + 1);
+        final long half = 1L << 31;
+
+        int first = src[offset];
+        int sum0 = (r + 1) * (first & 0xff);
+        int sum1 = (r + 1) * ((first >>> 8) & 0xff);
+        int sum2 = (r + 1) * ((first >>> 16) & 0xff);
+        int sum3 = (r + 1) * (first >>> 24);
+        for (int i = 1; i <= r; i++) {
+            int p = src[offset + Math.min(i, last) * step];
+            sum0 += p & 0xff;
+            sum1 += (p >>> 8) & 0xff;
+            sum2 += (p >>> 16) & 0xff;
+            sum3 += p >>> 24;
+        }
+
+        int index = offset;
+        for (int x = 0; x < length; x++) {
+            int value = (int) ((sum0 * mul + half) >>> 32)
+                    | (int) ((sum1 * mul + half) >>> 32) << 8
+                    | (int) ((sum2 * mul + half) >>> 32) << 16
+                    | (int) ((sum3 * mul + half) >>> 32) << 24;
+            dst[index] = blend != null ? blend.apply(value) : value;
+            index += step;
+
+            int in = src[offset + Math.min(x + r + 1, last) * step];
+            int out = src[offset + Math.max(x - r, 0) * step];
+            sum0 += (in & 0xff) - (out & 0xff);
+            sum1 += ((in >>> 8) & 0xff) - ((out >>> 8) & 0xff);
+            sum2 += ((in >>> 16) & 0xff) - ((out >>> 16) & 0xff);
+            sum3 += (in >>> 24) - (out >>> 24);
+        }
+    }
+}
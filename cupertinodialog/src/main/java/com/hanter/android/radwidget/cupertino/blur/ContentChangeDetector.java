@@ -0,0 +1,92 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import android.graphics.Bitmap;
+
+import java.nio.IntBuffer;
+
+/**
+ * Detects whether the downscaled capture changed since the previous frame.
+ * <p>
+ * Compares a 64 bit fingerprint of every {@link #ROW_STRIDE}-th row of the capture,
+ * mixed with the blur parameters. The capture is already 1/{@link BlurController#DEFAULT_SCALE_FACTOR}
+ * of the screen in each dimension, so a skipped row covers only a few screen pixels, which
+ * the blur would spread out anyway.
+ * <p>
+ * The raw premultiplied pixels are copied in one go into a reused buffer, without the per pixel
+ * unpremultiplying of {@link Bitmap#getPixels}.
+ */
+final class ContentChangeDetector {
+
+    private static final int ROW_STRIDE = 2;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private IntBuffer buffer = IntBuffer.allocate(0);
+    private boolean hasFingerprint;
+    private long lastFingerprint;
+
+    private long unchangedCount;
+    private long changedCount;
+
+    /**
+     * @param bitmap capture to check, before it is blurred
+     * @param params hash of anything else that affects the blurred result
+     * @return true if the capture or the params differ from the previous call
+     */
+    boolean hasChanged(Bitmap bitmap, long params) {
+        int words = (bitmap.getByteCount() + 3) / 4;
+        if (buffer.capacity() < words) {
+            buffer = IntBuffer.allocate(words);
+        }
+        buffer.clear();
+        bitmap.copyPixelsToBuffer(buffer);
+
+        int[] pixels = buffer.array();
+        int rowWords = (bitmap.getRowBytes() + 3) / 4;
+        int height = bitmap.getHeight();
+        long hash = mix(FNV_OFFSET, params);
+        for (int y = 0; y < height; y += ROW_STRIDE) {
+            int end = Math.min(words, (y + 1) * rowWords);
+            for (int i = y * rowWords; i < end; i++) {
+                hash = mix(hash, pixels[i]);
+            }
+        }
+
+        boolean changed = !hasFingerprint || hash != lastFingerprint;
+        hasFingerprint = true;
+        lastFingerprint = hash;
+
+        if (changed) {
+            changedCount++;
+        } else {
+            unchangedCount++;
+        }
+        return changed;
+    }
+
+    /**
+     * Forgets the previous fingerprint, so the next frame is always reported as changed
+     */
+    void reset() {
+        hasFingerprint = false;
+    }
+
+    /**
+     * @return number of frames where the blur could be skipped
+     */
+    long getUnchangedCount() {
+        return unchangedCount;
+    }
+
+    /**
+     * @return number of frames which had to be blurred
+     */
+    long getChangedCount() {
+        return changedCount;
+    }
+
+    private static long mix(long hash, long value) {
+        return (hash ^ value) * FNV_PRIME;
+    }
+}
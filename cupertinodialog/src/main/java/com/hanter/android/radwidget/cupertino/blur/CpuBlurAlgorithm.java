@@ -0,0 +1,121 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.IntBuffer;
+
+/**
+ * Base class for blur algorithms which work on the pixels of the bitmap on the CPU.
+ * <p>
+ * The raw (premultiplied) content of the bitmap is copied into an int array,
+ * blurred in place by {@link #blurPixels(int[], int, int, float, BlendEngine)} and copied back.
+ * The pixel array is kept between calls and only grows when the bitmap gets bigger.
+ * <p>
+ * The barrier and overlay colors are applied by {@link BlendEngine} as the last pass of the kernel
+ * writes its output, so they don't cost a pass of their own, and all blend modes work on every API level.
+ */
+abstract class CpuBlurAlgorithm implements FusedBlurAlgorithm, MetricsAware {
+
+    private int[] pixels = new int[0];
+    private IntBuffer pixelBuffer = IntBuffer.wrap(pixels);
+    private final BlendEngine blendEngine = new BlendEngine();
+    @Nullable
+    private volatile BlurMetrics metrics;
+    // Reported to BlurMemoryGovernor
+    private long accountedBytes;
+
+    /**
+     * @param pixels raw pixels of the bitmap, row by row without padding
+     * @param width  bitmap width
+     * @param height bitmap height
+     * @param radius blur radius
+     * @param blend  to apply to every pixel of the result, null for none
+     */
+    abstract void blurPixels(int[] pixels, int width, int height, float radius, @Nullable BlendEngine blend);
+
+    /**
+     * Frees algorithm specific buffers
+     */
+    abstract void releaseBuffers();
+
+    /**
+     * @return bytes held by algorithm specific buffers
+     */
+    abstract long getBufferBytes();
+
+    @Override
+    public final Bitmap blur(Bitmap bitmap, float blurRadius) {
+        return blur(bitmap, blurRadius, 0, 0, BlurView.NONE);
+    }
+
+    @Override
+    public Bitmap blur(Bitmap bitmap, float blurRadius, int overlayColor, int blendMode) {
+        return blur(bitmap, blurRadius, 0, overlayColor, blendMode);
+    }
+
+    @Override
+    public Bitmap blur(Bitmap bitmap, float blurRadius, int barrierColor, int overlayColor, int blendMode) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        ensureCapacity(width * height);
+
+        pixelBuffer.rewind();
+        bitmap.copyPixelsToBuffer(pixelBuffer);
+
+        blendEngine.setColors(barrierColor, overlayColor, blendMode);
+        blurPixels(pixels, width, height, blurRadius, blendEngine.isIdentity() ? null : blendEngine);
+        updateAccountedBytes(4L * pixels.length + getBufferBytes());
+
+        pixelBuffer.rewind();
+        bitmap.copyPixelsFromBuffer(pixelBuffer);
+
+        BlurMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.recordCopiedBytes(2L * bitmap.getByteCount());
+        }
+        return bitmap;
+    }
+
+    @Override
+    public void setBlurMetrics(@Nullable BlurMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    private void updateAccountedBytes(long bytes) {
+        if (bytes > accountedBytes) {
+            BlurMemoryGovernor.onAllocated(bytes - accountedBytes);
+        } else if (bytes < accountedBytes) {
+            BlurMemoryGovernor.onFreed(accountedBytes - bytes);
+        }
+        accountedBytes = bytes;
+    }
+
+    private void ensureCapacity(int size) {
+        if (pixels.length < size) {
+            pixels = new int[size];
+            pixelBuffer = IntBuffer.wrap(pixels);
+        }
+    }
+
+    @Override
+    public final void destroy() {
+        pixels = new int[0];
+        pixelBuffer = IntBuffer.wrap(pixels);
+        releaseBuffers();
+        updateAccountedBytes(0);
+    }
+
+    @Override
+    public boolean canModifyBitmap() {
+        return true;
+    }
+
+    @NonNull
+    @Override
+    public Bitmap.Config getSupportedBitmapConfig() {
+        return Bitmap.Config.ARGB_8888;
+    }
+}
@@ -0,0 +1,44 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Dual Kawase (downsample / upsample pyramid) blur, processed on CPU.
+ * <p>
+ * Reaches very large effective radii for a small and nearly constant cost,
+ * so it isn't limited to 25 like {@link RenderScriptBlur}. The radius is rounded to
+ * a number of pyramid levels, see {@link #getLevelCount()}. Doesn't need RenderScript.
+ */
+public final class DualKawaseBlur extends CpuBlurAlgorithm {
+
+    private final DualKawaseKernel kernel;
+
+    public DualKawaseBlur() {
+        kernel = new DualKawaseKernel(BlurWorkers.getDefault());
+    }
+
+    /**
+     * @param radius effective blur radius, each pyramid level roughly doubles it
+     */
+    @Override
+    void blurPixels(int[] pixels, int width, int height, float radius, @Nullable BlendEngine blend) {
+        kernel.blur(pixels, width, height, radius, blend);
+    }
+
+    @Override
+    void releaseBuffers() {
+        kernel.release();
+    }
+
+    @Override
+    long getBufferBytes() {
+        return kernel.getBufferBytes();
+    }
+
+    /**
+     * @return number of pyramid levels used by the last blur
+     */
+    public int getLevelCount() {
+        return kernel.getLastLevelCount();
+    }
+}
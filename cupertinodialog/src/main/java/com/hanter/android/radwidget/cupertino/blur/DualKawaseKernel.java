@@ -0,0 +1,233 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+/**
+ * Dual Kawase blur (Bjorge, "Bandwidth-Efficient Rendering", SIGGRAPH 2015) over packed 32 bit pixels.
+ * <p>
+ * The image is repeatedly halved with a small 8 tap filter, then upsampled back level by level
+ * with a 4 tap tent filter. Each level roughly doubles the effective radius, while the work is
+ * dominated by the first level, so very large radii cost about the same as small ones.
+ * <p>
+ * Channels are processed two at a time in 16 bit lanes of an int, so the byte order
+ * of the pixels doesn't matter, as long as they are premultiplied.
+ * An optional {@link BlendEngine} is applied as the last upsampling pass writes its output.
+ */
+final class DualKawaseKernel {
+
+    static final int MAX_LEVELS = 8;
+
+    /**
+     * Smallest level side, in pixels, still worth going down to
+     */
+    private static final int MIN_LEVEL_SIZE = 2;
+
+    private static final int LANES = 0x00ff00ff;
+
+    private final BlurWorkers workers;
+
+    private final int[][] levels = new int[MAX_LEVELS + 1][];
+    private final int[] levelWidths = new int[MAX_LEVELS + 1];
+    private final int[] levelHeights = new int[MAX_LEVELS + 1];
+
+    private int lastLevelCount;
+
+    // Arguments of the current pass, read by the bands below so they don't have to be allocated per call
+    private int[] src;
+    private int sw;
+    private int sh;
+    private int[] dst;
+    private int dw;
+    private BlendEngine blend;
+
+    /**
+     * Each destination pixel is the average of the 2x2 source block under it (weight 4)
+     * and of the four pixels diagonally outside that block (weight 4).
+     */
+    private final BlurWorkers.Band downsamplePass = new BlurWorkers.Band() {
+        @Override
+        public void run(int band, int from, int to) {
+            int maxX = sw - 1;
+            int maxY = sh - 1;
+            for (int y = from; y < to; y++) {
+                int sy = 2 * y;
+                int rowTop = Math.max(sy - 1, 0) * sw;
+                int row0 = Math.min(sy, maxY) * sw;
+                int row1 = Math.min(sy + 1, maxY) * sw;
+                int rowBottom = Math.min(sy + 2, maxY) * sw;
+                for (int x = 0; x < dw; x++) {
+                    int sx = 2 * x;
+                    int left = Math.max(sx - 1, 0);
+                    int x0 = Math.min(sx, maxX);
+                    int x1 = Math.min(sx + 1, maxX);
+                    int right = Math.min(sx + 2, maxX);
+
+                    int p0 = src[row0 + x0];
+                    int p1 = src[row0 + x1];
+                    int p2 = src[row1 + x0];
+                    int p3 = src[row1 + x1];
+                    int p4 = src[rowTop + left];
+                    int p5 = src[rowTop + right];
+                    int p6 = src[rowBottom + left];
+                    int p7 = src[rowBottom + right];
+
+                    int low = (p0 & LANES) + (p1 & LANES) + (p2 & LANES) + (p3 & LANES)
+                            + (p4 & LANES) + (p5 & LANES) + (p6 & LANES) + (p7 & LANES);
+                    int high = ((p0 >>> 8) & LANES) + ((p1 >>> 8) & LANES)
+                            + ((p2 >>> 8) & LANES) + ((p3 >>> 8) & LANES)
+                            + ((p4 >>> 8) & LANES) + ((p5 >>> 8) & LANES)
+                            + ((p6 >>> 8) & LANES) + ((p7 >>> 8) & LANES);
+
+                    dst[y * dw + x] = (((low + 0x00040004) >>> 3) & LANES)
+                            | ((((high + 0x00040004) >>> 3) & LANES) << 8);
+                }
+            }
+        }
+    };
+
+    /**
+     * Bilinear (tent) 2x upsampling: weights 9, 3, 3, 1 of the nearest source pixel
+     * and its neighbours towards the destination pixel.
+     */
+    private final BlurWorkers.Band upsamplePass = new BlurWorkers.Band() {
+        @Override
+        public void run(int band, int from, int to) {
+            int maxX = sw - 1;
+            int maxY = sh - 1;
+            for (int y = from; y < to; y++) {
+                int sy = y >> 1;
+                int ny = (y & 1) == 0 ? Math.max(sy - 1, 0) : Math.min(sy + 1, maxY);
+                int row = sy * sw;
+                int nRow = ny * sw;
+                for (int x = 0; x < dw; x++) {
+                    int sx = x >> 1;
+                    int nx = (x & 1) == 0 ? Math.max(sx - 1, 0) : Math.min(sx + 1, maxX);
+
+                    int p0 = src[row + sx];
+                    int p1 = src[row + nx];
+                    int p2 = src[nRow + sx];
+                    int p3 = src[nRow + nx];
+
+                    int low = 9 * (p0 & LANES) + 3 * (p1 & LANES) + 3 * (p2 & LANES) + (p3 & LANES);
+                    int high = 9 * ((p0 >>> 8) & LANES) + 3 * ((p1 >>> 8) & LANES)
+                            + 3 * ((p2 >>> 8) & LANES) + ((p3 >>> 8) & LANES);
+
+                    int value = (((low + 0x00080008) >>> 4) & LANES)
+                            | ((((high + 0x00080008) >>> 4) & LANES) << 8);
+                    dst[y * dw + x] = blend != null ? blend.apply(value) : value;
+                }
+            }
+        }
+    };
+
+    DualKawaseKernel(BlurWorkers workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * @return number of pyramid levels the given radius needs on a bitmap of the given size
+     */
+    static int levelsFor(float radius, int width, int height) {
+        if (radius < 1f) {
+            return 0;
+        }
+        int levels = Math.max(1, Math.round((float) (Math.log(radius) / Math.log(2))) - 1);
+        levels = Math.min(levels, MAX_LEVELS);
+        while (levels > 1 && ((width >> levels) < MIN_LEVEL_SIZE || (height >> levels) < MIN_LEVEL_SIZE)) {
+            levels--;
+        }
+        return levels;
+    }
+
+    /**
+     * Blurs pixels in place
+     *
+     * @param pixels packed pixels, row by row, at least width * height long
+     * @param radius effective blur radius in pixels, rounded to the nearest power of two
+     * @param blend  applied to every output pixel, null for none
+     */
+    void blur(int[] pixels, int width, int height, float radius, BlendEngine blend) {
+        int count = levelsFor(radius, width, height);
+        lastLevelCount = count;
+        if (count == 0) {
+            if (blend != null) {
+                blend.blend(pixels, 0, width * height);
+            }
+            return;
+        }
+
+        levels[0] = pixels;
+        levelWidths[0] = width;
+        levelHeights[0] = height;
+        for (int i = 1; i <= count; i++) {
+            int w = (levelWidths[i - 1] + 1) / 2;
+            int h = (levelHeights[i - 1] + 1) / 2;
+            if (levels[i] == null || levels[i].length < w * h) {
+                levels[i] = new int[w * h];
+            }
+            levelWidths[i] = w;
+            levelHeights[i] = h;
+        }
+
+        for (int i = 1; i <= count; i++) {
+            downsample(levels[i - 1], levelWidths[i - 1], levelHeights[i - 1],
+                    levels[i], levelWidths[i], levelHeights[i]);
+        }
+        for (int i = count; i >= 1; i--) {
+            upsample(levels[i], levelWidths[i], levelHeights[i],
+                    levels[i - 1], levelWidths[i - 1], levelHeights[i - 1], i == 1 ? blend : null);
+        }
+        levels[0] = null;
+    }
+
+    /**
+     * @return number of pyramid levels used by the last {@link #blur(int[], int, int, float, BlendEngine)} call
+     */
+    int getLastLevelCount() {
+        return lastLevelCount;
+    }
+
+    void release() {
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = null;
+        }
+    }
+
+    /**
+     * @return bytes held by the buffers kept between calls
+     */
+    long getBufferBytes() {
+        long bytes = 0;
+        for (int[] level : levels) {
+            if (level != null) {
+                bytes += 4L * level.length;
+            }
+        }
+        return bytes;
+    }
+
+    private void downsample(int[] src, int sw, int sh, int[] dst, int dw, int dh) {
+        setPass(src, sw, sh, dst, dw, null);
+        try {
+            workers.run(dh, downsamplePass);
+        } finally {
+            setPass(null, 0, 0, null, 0, null);
+        }
+    }
+
+    private void upsample(int[] src, int sw, int sh, int[] dst, int dw, int dh, BlendEngine blend) {
+        setPass(src, sw, sh, dst, dw, blend);
+        try {
+            workers.run(dh, upsamplePass);
+        } finally {
+            setPass(null, 0, 0, null, 0, null);
+        }
+    }
+
+    private void setPass(int[] src, int sw, int sh, int[] dst, int dw, BlendEngine blend) {
+        this.src = src;
+        this.sw = sw;
+        this.sh = sh;
+        this.dst = dst;
+        this.dw = dw;
+        this.blend = blend;
+    }
+}
@@ -0,0 +1,28 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.ColorInt;
+
+/**
+ * {@link BlurAlgorithm} which applies BlurView's barrier color and overlay blend itself,
+ * while writing the result of its last blur pass.
+ * <p>
+ * With such an algorithm the controllers don't draw the barrier color over the capture,
+ * and don't blend the overlay color on BlurView's canvas, so neither costs an extra pass
+ * over the pixels. Drawing a solid color over the input of a blur gives the same result
+ * as drawing it over the output, which is what makes moving the barrier possible.
+ */
+public interface FusedBlurAlgorithm extends BlurAlgorithm {
+
+    /**
+     * @param bitmap       bitmap to be blurred, without the barrier color
+     * @param blurRadius   blur radius
+     * @param barrierColor color drawn over the blurred pixels (source over), transparent for none
+     * @param overlayColor color blended over the blurred pixels, after the barrier
+     * @param blendMode    one of the BlurView blend modes, {@link BlurView#NONE} for no overlay
+     * @return blurred bitmap
+     */
+    Bitmap blur(Bitmap bitmap, float blurRadius, @ColorInt int barrierColor, @ColorInt int overlayColor,
+                int blendMode);
+}
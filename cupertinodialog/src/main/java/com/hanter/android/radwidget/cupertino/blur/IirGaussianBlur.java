@@ -0,0 +1,44 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Recursive (IIR) Gaussian blur, processed on CPU.
+ * <p>
+ * Gives true Gaussian quality at a cost per pixel which doesn't depend on the radius.
+ * Prefer it over {@link BoxBlur} for large radii, where box approximations show banding.
+ * Doesn't need RenderScript.
+ */
+public final class IirGaussianBlur extends CpuBlurAlgorithm {
+
+    private final IirGaussianKernel kernel;
+
+    public IirGaussianBlur() {
+        this(BlurWorkers.getDefault());
+    }
+
+    /**
+     * @param workers pool to run the passes on, e.g. a private one to time the algorithm on
+     */
+    IirGaussianBlur(BlurWorkers workers) {
+        kernel = new IirGaussianKernel(workers);
+    }
+
+    /**
+     * @param radius blur radius, interpreted the same way as by {@link RenderScriptBlur}
+     */
+    @Override
+    void blurPixels(int[] pixels, int width, int height, float radius, @Nullable BlendEngine blend) {
+        kernel.blur(pixels, width, height, radius, blend);
+    }
+
+    @Override
+    void releaseBuffers() {
+        kernel.release();
+    }
+
+    @Override
+    long getBufferBytes() {
+        return kernel.getBufferBytes();
+    }
+}
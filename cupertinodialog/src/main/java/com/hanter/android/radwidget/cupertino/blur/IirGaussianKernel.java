@@ -0,0 +1,218 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+/**
+ * Recursive (IIR) Gaussian blur over packed 32 bit pixels, after
+ * Young and van Vliet, "Recursive implementation of the Gaussian filter" (1995).
+ * <p>
+ * Every row and column gets a causal (forward) and an anti-causal (backward) third order
+ * pass in float arithmetic, so the cost per pixel doesn't depend on sigma, while the result
+ * stays close to a true Gaussian even for large radii, where box approximations start banding.
+ * <p>
+ * Rows and columns are filtered in place, each band only needs one float line of scratch.
+ * An optional {@link BlendEngine} is applied as the column pass writes its output.
+ */
+final class IirGaussianKernel {
+
+    private static final int CHANNELS = 4;
+
+    private final BlurWorkers workers;
+    private final float[][] lines;
+
+    private float b;
+    private float a1;
+    private float a2;
+    private float a3;
+    // Triggs / Sdika matrix, starts the backward pass as if the line went on with its edge pixel
+    private final float[] boundary = new float[9];
+
+    // Arguments of the current blur() call, read by the passes below so they don't have to be allocated per call
+    private int[] pixels;
+    private int width;
+    private int height;
+    private BlendEngine blend;
+
+    private final BlurWorkers.Band rowPass = new BlurWorkers.Band() {
+        @Override
+        public void run(int band, int from, int to) {
+            float[] line = lines[band];
+            for (int y = from; y < to; y++) {
+                filterLine(pixels, y * width, 1, width, line, null);
+            }
+        }
+    };
+
+    private final BlurWorkers.Band columnPass = new BlurWorkers.Band() {
+        @Override
+        public void run(int band, int from, int to) {
+            float[] line = lines[band];
+            for (int x = from; x < to; x++) {
+                filterLine(pixels, x, width, height, line, blend);
+            }
+        }
+    };
+
+    IirGaussianKernel(BlurWorkers workers) {
+        this.workers = workers;
+        this.lines = new float[workers.getParallelism()][];
+    }
+
+    /**
+     * Blurs pixels in place
+     *
+     * @param pixels packed pixels, row by row, at least width * height long
+     * @param radius blur radius in pixels, mapped to sigma the same way as {@link BoxBlurKernel} does
+     * @param blend  applied to every output pixel, null for none
+     */
+    void blur(int[] pixels, int width, int height, float radius, BlendEngine blend) {
+        setSigma(BoxBlurKernel.radiusToSigma(radius));
+        ensureCapacity(Math.max(width, height) * CHANNELS);
+
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+        this.blend = blend;
+        try {
+            workers.run(height, rowPass);
+            workers.run(width, columnPass);
+        } finally {
+            this.pixels = null;
+            this.blend = null;
+        }
+    }
+
+    void release() {
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = null;
+        }
+    }
+
+    /**
+     * @return bytes held by the buffers kept between calls
+     */
+    long getBufferBytes() {
+        long bytes = 0;
+        for (float[] line : lines) {
+            if (line != null) {
+                bytes += 4L * line.length;
+            }
+        }
+        return bytes;
+    }
+
+    private void ensureCapacity(int size) {
+        for (int i = 0; i < lines.length; i++) {
+            if (lines[i] == null || lines[i].length < size) {
+                lines[i] = new float[size];
+            }
+        }
+    }
+
+    /**
+     * Computes the recursion coefficients (Young / van Vliet, eq. 11 and 8c)
+     */
+    private void setSigma(float sigma) {
+        double s = Math.max(0.5, sigma);
+        double q;
+        if (s >= 2.5) {
+            q = 0.98711 * s - 0.96330;
+        } else {
+            q = 3.97156 - 4.14554 * Math.sqrt(1 - 0.26891 * s);
+        }
+        double q2 = q * q;
+        double q3 = q2 * q;
+
+        double b0 = 1.57825 + 2.44413 * q + 1.4281 * q2 + 0.422205 * q3;
+        double b1 = 2.44413 * q + 2.85619 * q2 + 1.26661 * q3;
+        double b2 = -(1.4281 * q2 + 1.26661 * q3);
+        double b3 = 0.422205 * q3;
+
+        a1 = (float) (b1 / b0);
+        a2 = (float) (b2 / b0);
+        a3 = (float) (b3 / b0);
+        b = 1f - (a1 + a2 + a3);
+
+        // Triggs and Sdika, "Boundary conditions for Young - van Vliet recursive filtering" (2006)
+        double c1 = a1;
+        double c2 = a2;
+        double c3 = a3;
+        double scale = b / ((1 + c1 - c2 + c3) * (1 - c1 - c2 - c3) * (1 + c2 + (c1 - c3) * c3));
+        boundary[0] = (float) (scale * (-c3 * c1 + 1 - c3 * c3 - c2));
+        boundary[1] = (float) (scale * (c3 + c1) * (c2 + c3 * c1));
+        boundary[2] = (float) (scale * c3 * (c1 + c3 * c2));
+        boundary[3] = (float) (scale * (c1 + c3 * c2));
+        boundary[4] = (float) (-scale * (c2 - 1) * (c2 + c3 * c1));
+        boundary[5] = (float) (-scale * c3 * (c3 * c1 + c3 * c3 + c2 - 1));
+        boundary[6] = (float) (scale * (c3 * c1 + c2 + c1 * c1 - c2 * c2));
+        boundary[7] = (float) (scale * (c1 * c2 + c3 * c2 * c2 - c1 * c3 * c3 - c3 * c3 * c3 - c3 * c2 + c3));
+        boundary[8] = (float) (scale * c3 * (c1 + c3 * c2));
+    }
+
+    /**
+     * Filters one row or column in place. The line is extended with its edge values: the forward
+     * recursion starts from the first pixel, the backward one from the exact state of an endless
+     * line of the last pixel, so both ends are treated alike.
+     *
+     * @param step  distance between two neighbour pixels of the line
+     * @param blend applied to every output pixel, null for none
+     */
+    private void filterLine(int[] pixels, int offset, int step, int length, float[] line,
+                            BlendEngine blend) {
+        final float b = this.b;
+        final float a1 = this.a1;
+        final float a2 = this.a2;
+        final float a3 = this.a3;
+
+        for (int c = 0; c < CHANNELS; c++) {
+            int shift = c * 8;
+            float edge = (pixels[offset] >>> shift) & 0xff;
+            float w1 = edge;
+            float w2 = edge;
+            float w3 = edge;
+            int index = offset;
+            for (int i = 0; i < length; i++) {
+                float x = (pixels[index] >>> shift) & 0xff;
+                float w = b * x + a1 * w1 + a2 * w2 + a3 * w3;
+                line[i * CHANNELS + c] = w;
+                w3 = w2;
+                w2 = w1;
+                w1 = w;
+                index += step;
+            }
+
+            // Deviation of the last forward outputs from the steady state of the edge pixel
+            int last = (length - 1) * CHANNELS + c;
+            edge = (pixels[offset + (length - 1) * step] >>> shift) & 0xff;
+            float d1 = line[last] - edge;
+            float d2 = (length > 1 ? line[last - CHANNELS] : line[last]) - edge;
+            float d3 = (length > 2 ? line[last - 2 * CHANNELS] : line[last]) - edge;
+            float[] m = boundary;
+            float y1 = m[0] * d1 + m[1] * d2 + m[2] * d3 + edge;
+            float y2 = m[3] * d1 + m[4] * d2 + m[5] * d3 + edge;
+            float y3 = m[6] * d1 + m[7] * d2 + m[8] * d3 + edge;
+            line[last] = y1;
+            for (int i = length - 2; i >= 0; i--) {
+                float y = b * line[i * CHANNELS + c] + a1 * y1 + a2 * y2 + a3 * y3;
+                line[i * CHANNELS + c] = y;
+                y3 = y2;
+                y2 = y1;
+                y1 = y;
+            }
+        }
+
+        int index = offset;
+        for (int i = 0; i < length; i++) {
+            int base = i * CHANNELS;
+            int value = clamp(line[base])
+                    | clamp(line[base + 1]) << 8
+                    | clamp(line[base + 2]) << 16
+                    | clamp(line[base + 3]) << 24;
+            pixels[index] = blend != null ? blend.apply(value) : value;
+            index += step;
+        }
+    }
+
+    private static int clamp(float value) {
+        int v = (int) (value + 0.5f);
+        return v < 0 ? 0 : (v > 255 ? 255 : v);
+    }
+}
@@ -0,0 +1,14 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Implemented by blur algorithms which report their own work to {@link BlurMetrics}
+ */
+interface MetricsAware {
+
+    /**
+     * @param metrics where to report to, null to stop reporting
+     */
+    void setBlurMetrics(@Nullable BlurMetrics metrics);
+}
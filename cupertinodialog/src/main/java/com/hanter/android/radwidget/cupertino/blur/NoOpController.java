@@ -16,6 +16,21 @@ class NoOpController implements BlurController {
     public void updateBlurViewSize() {
     }
 
+    @Override
+    public long getBlurCount() {
+        return 0;
+    }
+
+    @Override
+    public long getUnchangedFrameCount() {
+        return 0;
+    }
+
+    @Override
+    public long getChangedFrameCount() {
+        return 0;
+    }
+
     @Override
     public void destroy() {
     }
@@ -25,6 +40,21 @@ class NoOpController implements BlurController {
         return this;
     }
 
+    @Override
+    public BlurViewFacade animateBlurRadius(float radius, long durationMs) {
+        return this;
+    }
+
+    @Override
+    public BlurViewFacade setAdaptiveScale(float frameBudgetMs) {
+        return this;
+    }
+
+    @Override
+    public BlurViewFacade setBlurMetrics(@Nullable BlurMetrics metrics) {
+        return this;
+    }
+
     @Override
     public BlurViewFacade setBlurAlgorithm(BlurAlgorithm algorithm) {
         return this;
@@ -45,6 +75,11 @@ class NoOpController implements BlurController {
         return this;
     }
 
+    @Override
+    public BlurViewFacade setSourceDrivenUpdate(boolean enabled) {
+        return this;
+    }
+
     @Override
     public BlurViewFacade setHasFixedTransformationMatrix(boolean hasFixedTransformationMatrix) {
         return this;
@@ -5,45 +5,111 @@ import android.graphics.Bitmap;
 import android.graphics.PorterDuff;
 import android.os.Build;
 import android.renderscript.Allocation;
-import android.renderscript.Element;
-import android.renderscript.RenderScript;
-import android.renderscript.ScriptIntrinsicBlur;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 
-import com.hanter.android.radwidget.cupertino.ScriptC_BlendEx;
+import com.hanter.android.radwidget.cupertino.CupertinoTrace;
 
 /**
  * Blur using RenderScript, processed on GPU.
  * Requires API 17+
+ * <p>
+ * The RenderScript context and scripts are shared by all instances in the process,
+ * see {@link RenderScriptContext}.
+ * <p>
+ * Input allocations are created once per bitmap with {@link Allocation#USAGE_SHARED},
+ * so they use the bitmap's own pixels and refreshing them is a sync rather than a copy.
+ * One is kept for each of the bitmaps the controllers rotate, two for {@link BlockingBlurController}
+ * and three for {@link AsyncBlurController}.
+ * The output allocation is kept per bitmap size. In steady state a frame allocates nothing
+ * and makes one copy, from the output allocation back to the bitmap.
+ * <p>
+ * {@link BlurView#OVERLAY} is blended by a RenderScript kernel, other blend modes
+ * by {@link BlendEngine} on the CPU after the blur.
  */
-public final class RenderScriptBlur implements BlurAlgorithm {
-    private final RenderScript renderScript;
-    private final ScriptIntrinsicBlur blurScript;
-    private final ScriptC_BlendEx blendScript;
+public final class RenderScriptBlur implements BlurAlgorithm, MetricsAware {
+    private static final int BOUND_BITMAPS = 3;
+    // ScriptIntrinsicBlur limits
+    private static final float MIN_RADIUS = 0.1f;
+    private static final float MAX_RADIUS = 25f;
+
+    private final RenderScriptContext context;
     private Allocation outAllocation;
+    // Reported to BlurMemoryGovernor, shared input allocations use the bitmaps' own memory
+    private long outAllocationBytes;
+    private final BitmapBlend bitmapBlend = new BitmapBlend();
+    private long blendBufferBytes;
+    private final Bitmap[] boundBitmaps = new Bitmap[BOUND_BITMAPS];
+    private final Allocation[] inAllocations = new Allocation[BOUND_BITMAPS];
+    private int nextBoundSlot;
+    private boolean destroyed;
+
+    private long lastFrameCopiedBytes;
+    @Nullable
+    private volatile BlurMetrics metrics;
 
     private int lastBitmapWidth = -1;
     private int lastBitmapHeight = -1;
 
     /**
-     * @param context Context to create the {@link RenderScript}
+     * @param context Context to create the shared {@link android.renderscript.RenderScript}
+     *                if there is none yet. Only its application Context is kept.
      */
     @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR1)
     public RenderScriptBlur(Context context) {
-        renderScript = RenderScript.create(context);
-        blurScript = ScriptIntrinsicBlur.create(renderScript, Element.U8_4(renderScript));
-        blendScript = new ScriptC_BlendEx(renderScript);
+        this.context = RenderScriptContext.acquire(context);
+    }
+
+    /**
+     * @return how long it took to create the shared RenderScript context and scripts
+     * the last time it was needed, in nanoseconds
+     */
+    @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR1)
+    public static long getContextCreationTimeNanos() {
+        return RenderScriptContext.getLastCreationTimeNanos();
     }
 
     private boolean canReuseAllocation(Bitmap bitmap) {
         return bitmap.getHeight() == lastBitmapHeight && bitmap.getWidth() == lastBitmapWidth;
     }
 
+    /**
+     * @return input allocation sharing the pixels of the given bitmap, synced with its current content
+     */
+    private Allocation getInAllocation(Bitmap bitmap) {
+        for (int i = 0; i < BOUND_BITMAPS; i++) {
+            if (boundBitmaps[i] == bitmap) {
+                // Backed by the bitmap itself, only the script side has to see its new content
+                inAllocations[i].syncAll(Allocation.USAGE_SHARED);
+                return inAllocations[i];
+            }
+        }
+
+        int slot = nextBoundSlot;
+        nextBoundSlot = (nextBoundSlot + 1) % BOUND_BITMAPS;
+        if (inAllocations[slot] != null) {
+            inAllocations[slot].destroy();
+        }
+        inAllocations[slot] = Allocation.createFromBitmap(context.renderScript, bitmap,
+                Allocation.MipmapControl.MIPMAP_NONE, Allocation.USAGE_SCRIPT | Allocation.USAGE_SHARED);
+        boundBitmaps[slot] = bitmap;
+        lastFrameCopiedBytes += bitmap.getByteCount();
+        return inAllocations[slot];
+    }
+
+    /**
+     * @return bytes copied between Java and RenderScript memory by the last blur.
+     * Syncs of shared allocations aren't counted.
+     */
+    public long getLastFrameCopiedBytes() {
+        return lastFrameCopiedBytes;
+    }
+
     /**
      * @param bitmap     bitmap to blur
-     * @param blurRadius blur radius (1..25)
+     * @param blurRadius blur radius, clamped to (0..25]
      * @return blurred bitmap
      */
     @RequiresApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
@@ -55,44 +121,113 @@ public final class RenderScriptBlur implements BlurAlgorithm {
     @RequiresApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
     @Override
     public Bitmap blur(Bitmap bitmap, float blurRadius, int overlayColor, int blendMode) {
-        //Allocation will use the same backing array of pixels as bitmap if created with USAGE_SHARED flag
-        Allocation inAllocation = Allocation.createFromBitmap(renderScript, bitmap);
-
-        if (!canReuseAllocation(bitmap)) {
-            if (outAllocation != null) {
-                outAllocation.destroy();
+        // Scripts are shared with other instances
+        synchronized (context) {
+            lastFrameCopiedBytes = 0;
+            //Allocation will use the same backing array of pixels as bitmap if created with USAGE_SHARED flag
+            Allocation inAllocation = getInAllocation(bitmap);
+
+            if (!canReuseAllocation(bitmap)) {
+                if (outAllocation != null) {
+                    outAllocation.destroy();
+                    BlurMemoryGovernor.onFreed(outAllocationBytes);
+                }
+                outAllocation = Allocation.createTyped(context.renderScript, inAllocation.getType());
+                outAllocationBytes = bitmap.getByteCount();
+                BlurMemoryGovernor.onAllocated(outAllocationBytes);
+                lastBitmapWidth = bitmap.getWidth();
+                lastBitmapHeight = bitmap.getHeight();
             }
-            outAllocation = Allocation.createTyped(renderScript, inAllocation.getType());
-            lastBitmapWidth = bitmap.getWidth();
-            lastBitmapHeight = bitmap.getHeight();
-        }
 
 
-        blurScript.setRadius(blurRadius);
-        blurScript.setInput(inAllocation);
+            context.blurScript.setRadius(Math.max(MIN_RADIUS, Math.min(MAX_RADIUS, blurRadius)));
+            context.blurScript.setInput(inAllocation);
 
-        //do not use inAllocation in forEach. it will cause visual artifacts on blurred Bitmap
-        blurScript.forEach(outAllocation);
+            //do not use inAllocation in forEach. it will cause visual artifacts on blurred Bitmap
+            context.blurScript.forEach(outAllocation);
+
+            if (blendMode == BlurView.OVERLAY) {
+                if (CupertinoTrace.ENABLED) {
+                    CupertinoTrace.begin(CupertinoTrace.BLUR_BLEND);
+                }
+                context.blendScript.invoke_setOverlayColor(overlayColor);
+                context.blendScript.forEach_blendOverlay(outAllocation, outAllocation);
+                if (CupertinoTrace.ENABLED) {
+                    CupertinoTrace.end();
+                }
+            }
+
+            outAllocation.copyTo(bitmap);
+            lastFrameCopiedBytes += bitmap.getByteCount();
 
-        if (blendMode == BlurView.OVERLAY) {
-            blendScript.invoke_setOverlayColor(overlayColor);
-            blendScript.forEach_blendOverlay(outAllocation, outAllocation);
         }
 
-        outAllocation.copyTo(bitmap);
+        BlurMetrics metrics = this.metrics;
+        if (blendMode != BlurView.NONE && blendMode != BlurView.OVERLAY) {
+            blendOnCpu(bitmap, overlayColor, blendMode, metrics);
+        }
 
-        inAllocation.destroy();
+        // Kernels run asynchronously, their time only shows up in the blur stage as a whole
+        if (metrics != null) {
+            metrics.recordCopiedBytes(lastFrameCopiedBytes);
+            if (blendMode == BlurView.OVERLAY) {
+                metrics.recordTintPassBytes(2L * bitmap.getByteCount());
+            }
+        }
         return bitmap;
     }
 
+    private void blendOnCpu(Bitmap bitmap, int overlayColor, int blendMode, @Nullable BlurMetrics metrics) {
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.begin(CupertinoTrace.BLUR_BLEND);
+        }
+        long start = System.nanoTime();
+        long copied = bitmapBlend.blend(bitmap, overlayColor, blendMode);
+        lastFrameCopiedBytes += copied;
+        if (metrics != null) {
+            metrics.recordStage(BlurMetrics.STAGE_BLEND, System.nanoTime() - start);
+            // The blend reads and writes the pixel array once, as much as the copies do
+            metrics.recordTintPassBytes(copied);
+        }
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.end();
+        }
+
+        long bytes = bitmapBlend.getBufferBytes();
+        if (bytes != blendBufferBytes) {
+            BlurMemoryGovernor.onAllocated(bytes - blendBufferBytes);
+            blendBufferBytes = bytes;
+        }
+    }
+
+    @Override
+    public void setBlurMetrics(@Nullable BlurMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     @Override
     public final void destroy() {
-        blendScript.destroy();
-        blurScript.destroy();
-        renderScript.destroy();
+        if (destroyed) {
+            return;
+        }
+        destroyed = true;
+        // Allocations belong to the shared context, free them before giving it back
         if (outAllocation != null) {
             outAllocation.destroy();
+            outAllocation = null;
+            BlurMemoryGovernor.onFreed(outAllocationBytes);
+        }
+        for (int i = 0; i < BOUND_BITMAPS; i++) {
+            if (inAllocations[i] != null) {
+                inAllocations[i].destroy();
+                inAllocations[i] = null;
+            }
+            boundBitmaps[i] = null;
         }
+        bitmapBlend.release();
+        BlurMemoryGovernor.onFreed(blendBufferBytes);
+        blendBufferBytes = 0;
+        context.release();
     }
 
     @Override
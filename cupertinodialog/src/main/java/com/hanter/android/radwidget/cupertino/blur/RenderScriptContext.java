@@ -0,0 +1,136 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.renderscript.Element;
+import android.renderscript.RenderScript;
+import android.renderscript.ScriptIntrinsicBlur;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+import com.hanter.android.radwidget.cupertino.ScriptC_BlendEx;
+
+/**
+ * Process-wide {@link RenderScript} context together with the scripts used by {@link RenderScriptBlur}.
+ * <p>
+ * Creating the context and compiling the scripts takes tens of milliseconds, so instead of doing it
+ * for every shown dialog, all {@link RenderScriptBlur} instances borrow one reference counted holder.
+ * When the last user is gone the holder is kept for the next one, until the system asks to trim memory.
+ * A trim request that arrives while the holder is in use releases it as soon as the last user is gone.
+ * <p>
+ * The scripts are stateful (radius, input, overlay color), so users must synchronize on the holder
+ * while running them.
+ */
+@RequiresApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+final class RenderScriptContext {
+
+    private static final Object LOCK = new Object();
+
+    private static RenderScriptContext instance;
+    private static int refCount;
+    private static boolean releasePending;
+    private static boolean callbacksRegistered;
+    private static long lastCreationTimeNanos;
+
+    final RenderScript renderScript;
+    final ScriptIntrinsicBlur blurScript;
+    final ScriptC_BlendEx blendScript;
+
+    private RenderScriptContext(Context context) {
+        renderScript = RenderScript.create(context);
+        blurScript = ScriptIntrinsicBlur.create(renderScript, Element.U8_4(renderScript));
+        blendScript = new ScriptC_BlendEx(renderScript);
+    }
+
+    /**
+     * Borrows the shared holder, creating it if needed. Must be paired with {@link #release()}.
+     */
+    @NonNull
+    static RenderScriptContext acquire(@NonNull Context context) {
+        synchronized (LOCK) {
+            if (instance == null) {
+                Context appContext = context.getApplicationContext() != null
+                        ? context.getApplicationContext() : context;
+                long start = System.nanoTime();
+                instance = new RenderScriptContext(appContext);
+                lastCreationTimeNanos = System.nanoTime() - start;
+                registerCallbacks(appContext);
+            }
+            refCount++;
+            releasePending = false;
+            return instance;
+        }
+    }
+
+    /**
+     * Gives back the holder borrowed with {@link #acquire(Context)}
+     */
+    void release() {
+        synchronized (LOCK) {
+            if (refCount == 0) {
+                return;
+            }
+            refCount--;
+            if (refCount == 0 && releasePending) {
+                destroyInstance();
+            }
+        }
+    }
+
+    /**
+     * @return how long it took to create the context and the scripts the last time, in nanoseconds
+     */
+    static long getLastCreationTimeNanos() {
+        synchronized (LOCK) {
+            return lastCreationTimeNanos;
+        }
+    }
+
+    static void trimMemory() {
+        synchronized (LOCK) {
+            if (instance == null) {
+                return;
+            }
+            if (refCount == 0) {
+                destroyInstance();
+            } else {
+                releasePending = true;
+            }
+        }
+    }
+
+    private static void destroyInstance() {
+        instance.blendScript.destroy();
+        instance.blurScript.destroy();
+        instance.renderScript.destroy();
+        instance = null;
+        releasePending = false;
+    }
+
+    private static void registerCallbacks(Context appContext) {
+        if (callbacksRegistered) {
+            return;
+        }
+        callbacksRegistered = true;
+        appContext.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                if (level >= TRIM_MEMORY_RUNNING_LOW) {
+                    trimMemory();
+                }
+            }
+
+            @Override
+            public void onConfigurationChanged(@NonNull Configuration newConfig) {
+            }
+
+            @Override
+            public void onLowMemory() {
+                trimMemory();
+            }
+        });
+    }
+}
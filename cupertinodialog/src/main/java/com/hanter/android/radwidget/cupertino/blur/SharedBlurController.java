@@ -0,0 +1,337 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.hanter.android.radwidget.cupertino.CupertinoTrace;
+
+/**
+ * Draws the part of a {@link BlurSource} which lies under the attached View.
+ * <p>
+ * Nothing is captured or blurred here. The shared bitmap is drawn scaled and translated so
+ * that the View's bounds show their part of the root, then the View's barrier and overlay colors
+ * are applied on the canvas. Overlay modes a canvas can't blend on this API level are blended
+ * on the CPU into a small copy of the View's part, redone only when the source blurred again
+ * or while its radius animates.
+ * <p>
+ * Blur-wide settings (radius, algorithm, frame clear drawable, metrics) are forwarded to the source
+ * and affect every BlurView drawing from it.
+ */
+final class SharedBlurController implements BlurController {
+
+    private final BlurView blurView;
+    private final BlurSource source;
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.ANTI_ALIAS_FLAG);
+    private final int[] rootLocation = new int[2];
+    private final int[] blurViewLocation = new int[2];
+
+    private boolean blurEnabled = true;
+    private boolean blurAutoUpdate;
+    private boolean hasFixedTransformationMatrix;
+    private boolean locationValid;
+    // BlurView's position in the root
+    private int left;
+    private int top;
+
+    // View's part of the source, tinted on the CPU
+    private final BitmapBlend bitmapBlend = new BitmapBlend();
+    @Nullable
+    private Bitmap tintBitmap;
+    @Nullable
+    private Canvas tintCanvas;
+    private long tintedBlurCount = -1;
+    private int tintedLeft;
+    private int tintedTop;
+    private int tintedBarrierColor;
+    private int tintedOverlayColor;
+    private int tintedBlendMode;
+    private long tintBufferBytes;
+
+    SharedBlurController(@NonNull BlurView blurView, @NonNull BlurSource source) {
+        this.blurView = blurView;
+        this.source = source;
+        blurView.setWillNotDraw(false);
+        setBlurAutoUpdateInternal(true);
+    }
+
+    @Override
+    public boolean draw(Canvas canvas) {
+        if (!blurEnabled) {
+            return true;
+        }
+        // Not blurring own children, nor the source's capture
+        if (source.isCaptureCanvas(canvas)) {
+            return false;
+        }
+
+        source.update();
+        Bitmap bitmap = source.getBlurredBitmap();
+        if (bitmap == null) {
+            return true;
+        }
+        // Fixed or not, BlurView moves while the source animates
+        if (!hasFixedTransformationMatrix || !locationValid || source.isAnimating()) {
+            updateLocation();
+        }
+
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.begin(CupertinoTrace.BLUR_COMPOSITE);
+        }
+        int saveCount = canvas.save();
+        canvas.clipRect(0, 0, blurView.getWidth(), blurView.getHeight());
+        int blendMode = blurView.overlayBlendMode;
+        PorterDuff.Mode mode = blurView.getPorterDuffMode();
+        if (mode == null || AbstractBlurController.canBlendOnCanvas(blendMode)) {
+            canvas.save();
+            canvas.translate(source.getRegionLeft() - left, source.getRegionTop() - top);
+            canvas.scale(source.getScaleX(), source.getScaleY());
+            float opacity = source.drawBlurred(canvas, bitmap, paint);
+            canvas.restore();
+            if (blurView.barrierColor != Color.TRANSPARENT) {
+                canvas.drawColor(BlurMipChain.fade(blurView.barrierColor, opacity));
+            }
+            if (mode != null) {
+                canvas.drawColor(BlurMipChain.fade(blurView.overlayColor, opacity), mode);
+            }
+        } else {
+            drawTinted(canvas, bitmap);
+        }
+        canvas.restoreToCount(saveCount);
+        if (CupertinoTrace.ENABLED) {
+            CupertinoTrace.end();
+        }
+        return true;
+    }
+
+    /**
+     * Draws a part of the source bitmap, whose top left corner is at (x, y) of the root,
+     * so it matches the root under BlurView
+     */
+    private void drawBitmap(Canvas canvas, Bitmap bitmap, float x, float y) {
+        canvas.save();
+        canvas.translate(x - left, y - top);
+        canvas.scale(source.getScaleX(), source.getScaleY());
+        canvas.drawBitmap(bitmap, 0, 0, paint);
+        canvas.restore();
+    }
+
+    private void drawTinted(Canvas canvas, Bitmap bitmap) {
+        float scaleX = source.getScaleX();
+        float scaleY = source.getScaleY();
+        // BlurView's position in the blurred part of the root
+        int x = left - source.getRegionLeft();
+        int y = top - source.getRegionTop();
+        int regionLeft = Math.max(0, (int) Math.floor(x / scaleX));
+        int regionTop = Math.max(0, (int) Math.floor(y / scaleY));
+        int regionRight = Math.min(bitmap.getWidth(), (int) Math.ceil((x + blurView.getWidth()) / scaleX));
+        int regionBottom = Math.min(bitmap.getHeight(), (int) Math.ceil((y + blurView.getHeight()) / scaleY));
+        if (regionRight <= regionLeft || regionBottom <= regionTop) {
+            return;
+        }
+
+        int width = regionRight - regionLeft;
+        int height = regionBottom - regionTop;
+        if (tintBitmap == null || tintBitmap.getWidth() != width || tintBitmap.getHeight() != height) {
+            BlurCapture.releaseBitmap(tintBitmap);
+            tintBitmap = BlurCapture.acquireBitmap(width, height, bitmap.getConfig());
+            tintCanvas = new Canvas(tintBitmap);
+            tintedBlurCount = -1;
+        }
+
+        // A running radius animation changes the blur every frame
+        if (source.hasRadiusLevels() || tintedBlurCount != source.getBlurCount()
+                || tintedLeft != regionLeft || tintedTop != regionTop
+                || tintedBarrierColor != blurView.barrierColor || tintedOverlayColor != blurView.overlayColor
+                || tintedBlendMode != blurView.overlayBlendMode) {
+            tintBitmap.eraseColor(Color.TRANSPARENT);
+            tintCanvas.save();
+            tintCanvas.translate(-regionLeft, -regionTop);
+            float opacity = source.drawBlurred(tintCanvas, bitmap, paint);
+            tintCanvas.restore();
+            // Faded along with the blur, like the colors drawn on the canvas
+            bitmapBlend.blend(tintBitmap, BlurMipChain.fade(blurView.barrierColor, opacity),
+                    BlurMipChain.fade(blurView.overlayColor, opacity), blurView.overlayBlendMode);
+            updateTintBufferBytes();
+
+            tintedBlurCount = source.getBlurCount();
+            tintedLeft = regionLeft;
+            tintedTop = regionTop;
+            tintedBarrierColor = blurView.barrierColor;
+            tintedOverlayColor = blurView.overlayColor;
+            tintedBlendMode = blurView.overlayBlendMode;
+        }
+
+        drawBitmap(canvas, tintBitmap, source.getRegionLeft() + regionLeft * scaleX,
+                source.getRegionTop() + regionTop * scaleY);
+    }
+
+    private void updateTintBufferBytes() {
+        long bytes = bitmapBlend.getBufferBytes();
+        if (bytes != tintBufferBytes) {
+            BlurMemoryGovernor.onAllocated(bytes - tintBufferBytes);
+            tintBufferBytes = bytes;
+        }
+    }
+
+    private void updateLocation() {
+        source.getRootView().getLocationOnScreen(rootLocation);
+        blurView.getLocationOnScreen(blurViewLocation);
+        left = blurViewLocation[0] - rootLocation[0];
+        top = blurViewLocation[1] - rootLocation[1];
+        locationValid = true;
+    }
+
+    /**
+     * Adds BlurView's bounds to the region, in coordinates of the root at the given screen position
+     */
+    void addBounds(@NonNull Rect region, int rootX, int rootY) {
+        blurView.getLocationOnScreen(blurViewLocation);
+        int x = blurViewLocation[0] - rootX;
+        int y = blurViewLocation[1] - rootY;
+        region.union(x, y, x + blurView.getWidth(), y + blurView.getHeight());
+    }
+
+    /**
+     * The source blurred again, BlurView's window may not redraw by itself
+     */
+    void onSourceUpdated() {
+        if (blurEnabled && blurAutoUpdate) {
+            blurView.invalidate();
+        }
+    }
+
+    /**
+     * BlurView may have moved since its last draw, e.g. with the last frame of the animation
+     */
+    void onAnimationEnded() {
+        locationValid = false;
+        onSourceUpdated();
+    }
+
+    @Override
+    public void updateBlurViewSize() {
+        locationValid = false;
+    }
+
+    @Override
+    public long getBlurCount() {
+        return source.getBlurCount();
+    }
+
+    @Override
+    public long getUnchangedFrameCount() {
+        return source.getUnchangedFrameCount();
+    }
+
+    @Override
+    public long getChangedFrameCount() {
+        return source.getChangedFrameCount();
+    }
+
+    @Override
+    public void destroy() {
+        blurAutoUpdate = false;
+        source.detach(this);
+        BlurCapture.releaseBitmap(tintBitmap);
+        tintBitmap = null;
+        tintCanvas = null;
+        bitmapBlend.release();
+        BlurMemoryGovernor.onFreed(tintBufferBytes);
+        tintBufferBytes = 0;
+    }
+
+    @Override
+    public BlurViewFacade setBlurEnabled(final boolean enabled) {
+        blurView.post(new Runnable() {
+            @Override
+            public void run() {
+                blurEnabled = enabled;
+                blurView.invalidate();
+            }
+        });
+        return this;
+    }
+
+    @Override
+    public BlurViewFacade setBlurAutoUpdate(final boolean enabled) {
+        blurView.post(new Runnable() {
+            @Override
+            public void run() {
+                setBlurAutoUpdateInternal(enabled);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Attaches to the source, which is kept until {@link #destroy()}.
+     * When disabled the source keeps blurring, but BlurView is no longer invalidated for it.
+     */
+    private void setBlurAutoUpdateInternal(boolean enabled) {
+        blurAutoUpdate = enabled;
+        if (enabled) {
+            source.attach(this);
+        }
+    }
+
+    /**
+     * Always on, the source follows its root's invalidations
+     */
+    @Override
+    public BlurViewFacade setSourceDrivenUpdate(boolean enabled) {
+        return this;
+    }
+
+    @Override
+    public BlurViewFacade setHasFixedTransformationMatrix(boolean hasFixedTransformationMatrix) {
+        this.hasFixedTransformationMatrix = hasFixedTransformationMatrix;
+        locationValid = false;
+        return this;
+    }
+
+    @Override
+    public BlurViewFacade setFrameClearDrawable(@Nullable Drawable frameClearDrawable) {
+        source.setFrameClearDrawable(frameClearDrawable);
+        return this;
+    }
+
+    @Override
+    public BlurViewFacade setBlurRadius(float radius) {
+        source.setBlurRadius(radius);
+        return this;
+    }
+
+    @Override
+    public BlurViewFacade animateBlurRadius(float radius, long durationMs) {
+        source.animateBlurRadius(radius, durationMs);
+        return this;
+    }
+
+    /**
+     * The source captures at a fixed scale, coarsened only under memory pressure
+     */
+    @Override
+    public BlurViewFacade setAdaptiveScale(float frameBudgetMs) {
+        return this;
+    }
+
+    @Override
+    public BlurViewFacade setBlurAlgorithm(BlurAlgorithm algorithm) {
+        source.setBlurAlgorithm(algorithm);
+        return this;
+    }
+
+    @Override
+    public BlurViewFacade setBlurMetrics(@Nullable BlurMetrics metrics) {
+        source.setBlurMetrics(metrics);
+        return this;
+    }
+}
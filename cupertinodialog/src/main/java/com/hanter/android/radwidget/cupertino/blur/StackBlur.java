@@ -0,0 +1,43 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Stack blur, processed on CPU.
+ * <p>
+ * Doesn't need RenderScript. Rows and columns are split into bands
+ * which run on a fixed pool of worker threads, one per core.
+ */
+public final class StackBlur extends CpuBlurAlgorithm {
+
+    private final StackBlurKernel kernel;
+
+    public StackBlur() {
+        this(BlurWorkers.getDefault());
+    }
+
+    /**
+     * @param workers pool to run the passes on, e.g. a private one to time the algorithm on
+     */
+    StackBlur(BlurWorkers workers) {
+        kernel = new StackBlurKernel(workers);
+    }
+
+    /**
+     * @param radius blur radius (1..254)
+     */
+    @Override
+    void blurPixels(int[] pixels, int width, int height, float radius, @Nullable BlendEngine blend) {
+        kernel.blur(pixels, width, height, radius, blend);
+    }
+
+    @Override
+    void releaseBuffers() {
+        kernel.release();
+    }
+
+    @Override
+    long getBufferBytes() {
+        return kernel.getBufferBytes();
+    }
+}
@@ -0,0 +1,206 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+/**
+ * Stack blur (Mario Klingemann) over packed 32 bit pixels.
+ * <p>
+ * All four channels are treated the same way, so the byte order of the pixels doesn't matter,
+ * as long as the input is premultiplied (as the raw content of an ARGB_8888 Bitmap is).
+ * <p>
+ * The horizontal pass runs over row bands, the vertical one over column bands,
+ * both on {@link BlurWorkers}. Intermediate and per-band buffers are kept between calls.
+ * An optional {@link BlendEngine} is applied as the vertical pass writes its output.
+ */
+final class StackBlurKernel {
+
+    static final int MAX_RADIUS = 254;
+
+    private final BlurWorkers workers;
+
+    private int[] scratch = new int[0];
+    private final int[][] stacks;
+
+    // Arguments of the current blur() call, read by the passes below so they don't have to be allocated per call
+    private int[] pixels;
+    private int width;
+    private int height;
+    private int r;
+    private BlendEngine blend;
+
+    private final BlurWorkers.Band rowPass = new BlurWorkers.Band() {
+        @Override
+        public void run(int band, int from, int to) {
+            int[] stack = stacks[band];
+            for (int y = from; y < to; y++) {
+                blurLine(pixels, scratch, y * width, 1, width, r, stack, null);
+            }
+        }
+    };
+
+    private final BlurWorkers.Band columnPass = new BlurWorkers.Band() {
+        @Override
+        public void run(int band, int from, int to) {
+            int[] stack = stacks[band];
+            for (int x = from; x < to; x++) {
+                blurLine(scratch, pixels, x, width, height, r, stack, blend);
+            }
+        }
+    };
+
+    StackBlurKernel(BlurWorkers workers) {
+        this.workers = workers;
+        this.stacks = new int[workers.getParallelism()][];
+    }
+
+    /**
+     * Blurs pixels in place
+     *
+     * @param pixels packed pixels, row by row, at least width * height long
+     * @param radius blur radius in pixels, clamped to [1, {@link #MAX_RADIUS}]
+     * @param blend  applied to every output pixel, null for none
+     */
+    void blur(int[] pixels, int width, int height, float radius, BlendEngine blend) {
+        this.r = Math.max(1, Math.min(MAX_RADIUS, Math.round(radius)));
+        ensureCapacity(width * height, 2 * r + 1);
+
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+        this.blend = blend;
+        try {
+            workers.run(height, rowPass);
+            workers.run(width, columnPass);
+        } finally {
+            this.pixels = null;
+            this.blend = null;
+        }
+    }
+
+    void release() {
+        scratch = new int[0];
+        for (int i = 0; i < stacks.length; i++) {
+            stacks[i] = null;
+        }
+    }
+
+    /**
+     * @return bytes held by the buffers kept between calls
+     */
+    long getBufferBytes() {
+        long bytes = 4L * scratch.length;
+        for (int[] stack : stacks) {
+            if (stack != null) {
+                bytes += 4L * stack.length;
+            }
+        }
+        return bytes;
+    }
+
+    private void ensureCapacity(int size, int div) {
+        if (scratch.length < size) {
+            scratch = new int[size];
+        }
+        for (int i = 0; i < stacks.length; i++) {
+            if (stacks[i] == null || stacks[i].length < div) {
+                stacks[i] = new int[div];
+            }
+        }
+    }
+
+    /**
+     * Blurs one row or column
+     *
+     * @param step  distance between two neighbour pixels of the line
+     * @param blend applied to every output pixel, null for none
+     */
+    private static void blurLine(int[] src, int[] dst, int offset, int step, int length, int r, int[] stack,
+                                 BlendEngine blend) {
+        final int div = 2 * r + 1;
+        final int last = length - 1;
+        final long mul = ((1L << 32) + (r + 1) * (r + 1) - 1) / ((r + 1) * (r + 1));
+
+        int sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+        int in0 = 0, in1 = 0, in2 = 0, in3 = 0;
+        int out0 = 0, out1 = 0, out2 = 0, out3 = 0;
+
+        for (int i = -r; i <= r; i++) {
+            int p = src[offset + Math.min(last, Math.max(i, 0)) * step];
+            stack[i + r] = p;
+            int weight = r + 1 - Math.abs(i);
+            int c0 = p & 0xff;
+            int c1 = (p >>> 8) & 0xff;
+            int c2 = (p >>> 16) & 0xff;
+            int c3 = p >>> 24;
+            sum0 += c0 * weight;
+            sum1 += c1 * weight;
+            sum2 += c2 * weight;
+            sum3 += c3 * weight;
+            if (i > 0) {
+                in0 += c0;
+                in1 += c1;
+                in2 += c2;
+                in3 += c3;
+            } else {
+                out0 += c0;
+                out1 += c1;
+                out2 += c2;
+                out3 += c3;
+            }
+        }
+
+        int stackPointer = r;
+        int index = offset;
+        for (int x = 0; x < length; x++) {
+            int value = (int) ((sum0 * mul) >>> 32)
+                    | (int) ((sum1 * mul) >>> 32) << 8
+                    | (int) ((sum2 * mul) >>> 32) << 16
+                    | (int) ((sum3 * mul) >>> 32) << 24;
+            dst[index] = blend != null ? blend.apply(value) : value;
+            index += step;
+
+            sum0 -= out0;
+            sum1 -= out1;
+            sum2 -= out2;
+            sum3 -= out3;
+
+            int stackStart = stackPointer - r + div;
+            if (stackStart >= div) {
+                stackStart -= div;
+            }
+            int p = stack[stackStart];
+            out0 -= p & 0xff;
+            out1 -= (p >>> 8) & 0xff;
+            out2 -= (p >>> 16) & 0xff;
+            out3 -= p >>> 24;
+
+            p = src[offset + Math.min(x + r + 1, last) * step];
+            stack[stackStart] = p;
+            in0 += p & 0xff;
+            in1 += (p >>> 8) & 0xff;
+            in2 += (p >>> 16) & 0xff;
+            in3 += p >>> 24;
+
+            sum0 += in0;
+            sum1 += in1;
+            sum2 += in2;
+            sum3 += in3;
+
+            stackPointer++;
+            if (stackPointer >= div) {
+                stackPointer = 0;
+            }
+            p = stack[stackPointer];
+            int c0 = p & 0xff;
+            int c1 = (p >>> 8) & 0xff;
+            int c2 = (p >>> 16) & 0xff;
+            int c3 = p >>> 24;
+            out0 += c0;
+            out1 += c1;
+            out2 += c2;
+            out3 += c3;
+            in0 -= c0;
+            in1 -= c1;
+            in2 -= c2;
+            in3 -= c3;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveScaleTest {
+
+    private static final long MS = 1000000;
+    private static final long BUDGET = 10 * MS;
+    // BlurController.DEFAULT_SCALE_FACTOR
+    private static final float DEFAULT_SCALE_FACTOR = 8f;
+
+    @Test
+    public void disabledWithoutBudget() {
+        AdaptiveScale scale = new AdaptiveScale();
+        assertFalse(scale.isEnabled());
+        for (int i = 0; i < 100; i++) {
+            assertFalse(scale.onFrame(100 * MS));
+        }
+        assertEquals(DEFAULT_SCALE_FACTOR, scale.getScaleFactor(), 0f);
+    }
+
+    @Test
+    public void stepsUpAfterFourFramesOverBudget() {
+        AdaptiveScale scale = budgeted();
+        assertFrames(scale, 3, 20 * MS);
+        assertTrue(scale.onFrame(20 * MS));
+        assertEquals(12f, scale.getScaleFactor(), 0f);
+    }
+
+    @Test
+    public void stepsDownAfterSixtyFramesUnderThreshold() {
+        // Under 45% of the budget
+        AdaptiveScale scale = budgeted();
+        assertFrames(scale, 59, 4 * MS);
+        assertTrue(scale.onFrame(4 * MS));
+        assertEquals(6f, scale.getScaleFactor(), 0f);
+    }
+
+    @Test
+    public void holdsBetweenThresholds() {
+        AdaptiveScale scale = budgeted();
+        assertFrames(scale, 200, 6 * MS);
+        assertEquals(DEFAULT_SCALE_FACTOR, scale.getScaleFactor(), 0f);
+    }
+
+    @Test
+    public void frameBetweenThresholdsRestartsTheCount() {
+        AdaptiveScale scale = budgeted();
+        assertFrames(scale, 59, 4 * MS);
+        // Pulls the average over 45% of the budget
+        assertFalse(scale.onFrame(10 * MS));
+        // Sixty more fast frames are needed, the first few of them still average over 45%
+        assertFrames(scale, 60, 4 * MS);
+    }
+
+    @Test
+    public void averageAndCountsResetAfterLevelChange() {
+        AdaptiveScale scale = budgeted();
+        assertFrames(scale, 3, 20 * MS);
+        assertTrue(scale.onFrame(20 * MS));
+
+        // Frames over budget at the new level count from zero again
+        assertFrames(scale, 3, 20 * MS);
+        assertTrue(scale.onFrame(20 * MS));
+        assertEquals(16f, scale.getScaleFactor(), 0f);
+
+        // Average doesn't carry the slow frames over: fast ones step down after exactly sixty
+        assertFrames(scale, 59, MS);
+        assertTrue(scale.onFrame(MS));
+        assertEquals(12f, scale.getScaleFactor(), 0f);
+    }
+
+    @Test
+    public void staysWithinLevels() {
+        AdaptiveScale scale = budgeted();
+        for (int i = 0; i < 100; i++) {
+            scale.onFrame(100 * MS);
+        }
+        assertEquals(16f, scale.getScaleFactor(), 0f);
+        for (int i = 0; i < 1000; i++) {
+            scale.onFrame(0);
+        }
+        assertEquals(AdaptiveScale.getFinestScaleFactor(), scale.getScaleFactor(), 0f);
+    }
+
+    @Test
+    public void removingBudgetGoesBackToDefault() {
+        AdaptiveScale scale = budgeted();
+        assertFrames(scale, 3, 20 * MS);
+        assertTrue(scale.onFrame(20 * MS));
+        scale.setBudget(0);
+        assertEquals(DEFAULT_SCALE_FACTOR, scale.getScaleFactor(), 0f);
+    }
+
+    private static AdaptiveScale budgeted() {
+        AdaptiveScale scale = new AdaptiveScale();
+        scale.setBudget(BUDGET);
+        return scale;
+    }
+
+    /**
+     * Feeds frames which must not change the level
+     */
+    private static void assertFrames(AdaptiveScale scale, int count, long nanos) {
+        for (int i = 0; i < count; i++) {
+            assertFalse("frame " + i, scale.onFrame(nanos));
+        }
+    }
+}
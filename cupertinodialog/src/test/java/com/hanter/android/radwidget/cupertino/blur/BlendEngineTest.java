@@ -0,0 +1,217 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the integer blending with the premultiplied float formulas Skia uses for each mode
+ */
+public class BlendEngineTest {
+
+    private static final int[] MODES = {
+            BlendEngine.NONE, BlendEngine.CLEAR, BlendEngine.SRC, BlendEngine.DST, BlendEngine.SRC_OVER,
+            BlendEngine.DST_OVER, BlendEngine.SRC_IN, BlendEngine.DST_IN, BlendEngine.SRC_OUT,
+            BlendEngine.DST_OUT, BlendEngine.SRC_ATOP, BlendEngine.DST_ATOP, BlendEngine.XOR,
+            BlendEngine.ADD, BlendEngine.MULTIPLY, BlendEngine.SCREEN, BlendEngine.OVERLAY,
+            BlendEngine.DARKEN, BlendEngine.LIGHTEN
+    };
+    private static final int[] COLORS = {0xFFFFFFFF, 0xFF000000, 0xB3F8F8F8, 0x661E90FF, 0x20FF4000, 0x00FFFFFF};
+    private static final int[] BARRIERS = {0x00000000, 0x66FFFFFF, 0xFF202020};
+    // Integer math rounds the premultiplied colors and the blend separately, the float reference only once
+    private static final int TOLERANCE = 1;
+
+    private final int[] pixels = createPixels(new Random(20200417), 2000);
+
+    @Test
+    public void blendPixelMatchesFloatFormulas() {
+        BlendEngine engine = new BlendEngine();
+        for (int barrier : BARRIERS) {
+            for (int color : COLORS) {
+                for (int mode : MODES) {
+                    engine.setColors(barrier, color, mode);
+                    for (int pixel : pixels) {
+                        assertClose(barrier, color, mode, pixel, engine.blendPixel(pixel));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void lookupTablesMatchFloatFormulas() {
+        // Opaque pixels go through the tables, translucent ones through blendPixel
+        BlendEngine engine = new BlendEngine();
+        int[] blended = new int[pixels.length];
+        for (int barrier : BARRIERS) {
+            for (int color : COLORS) {
+                for (int mode : MODES) {
+                    engine.setColors(barrier, color, mode);
+                    System.arraycopy(pixels, 0, blended, 0, pixels.length);
+                    engine.blend(blended, 0, blended.length);
+                    for (int i = 0; i < pixels.length; i++) {
+                        assertClose(barrier, color, mode, pixels[i], blended[i]);
+                        if (!engine.isIdentity()) {
+                            assertEquals(blended[i], engine.apply(pixels[i]));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void identityLeavesPixelsAlone() {
+        BlendEngine engine = new BlendEngine();
+        engine.setOverlay(0x80FF0000, BlendEngine.DST);
+        assertTrue(engine.isIdentity());
+        engine.setColors(0x40FFFFFF, 0x80FF0000, BlendEngine.DST);
+        assertFalse(engine.isIdentity());
+
+        engine.setOverlay(0x80FF0000, BlendEngine.NONE);
+        int[] blended = pixels.clone();
+        engine.blend(blended, 0, blended.length);
+        KernelTestImages.assertSameImage(pixels, blended);
+    }
+
+    @Test
+    public void colorsAreReplacedOnChange() {
+        // The tables must follow the latest colors, not the first ones
+        BlendEngine engine = new BlendEngine();
+        engine.setOverlay(0xFFFF0000, BlendEngine.SRC_OVER);
+        engine.setOverlay(0xFF0000FF, BlendEngine.SRC_OVER);
+        assertEquals(0xFFFF0000, engine.apply(0xFF00FF00));
+        engine.setColors(0xFF00FF00, 0x00000000, BlendEngine.SRC_OVER);
+        assertEquals(0xFF00FF00, engine.apply(0xFF0000FF));
+    }
+
+    private static void assertClose(int barrier, int color, int mode, int pixel, int actual) {
+        int expected = reference(barrier, color, mode, pixel);
+        for (int c = 0; c < 4; c++) {
+            int difference = Math.abs(KernelTestImages.channel(expected, c) - KernelTestImages.channel(actual, c));
+            if (difference > TOLERANCE) {
+                throw new AssertionError("mode " + mode + ", barrier " + Integer.toHexString(barrier)
+                        + ", color " + Integer.toHexString(color) + ", pixel " + Integer.toHexString(pixel)
+                        + ": expected " + Integer.toHexString(expected) + ", was " + Integer.toHexString(actual));
+            }
+        }
+    }
+
+    /**
+     * @return pixel blended in float arithmetic, packed like {@link BlendEngine} packs it
+     */
+    private static int reference(int barrier, int color, int mode, int pixel) {
+        double[] d = unpack(pixel);
+        if (barrier >>> 24 != 0) {
+            double[] b = premultiply(barrier);
+            for (int c = 0; c < 4; c++) {
+                d[c] = blend(BlendEngine.SRC_OVER, b[c], b[3], d[c], d[3]);
+            }
+        }
+        double[] s = premultiply(color);
+        double a = clamp(blend(mode, s[3], s[3], d[3], d[3]));
+        int result = (int) Math.round(a * 255) << 24;
+        for (int c = 0; c < 3; c++) {
+            double value = Math.min(clamp(blend(mode, s[c], s[3], d[c], d[3])), a);
+            result |= (int) Math.round(value * 255) << (8 * c);
+        }
+        return result;
+    }
+
+    /**
+     * Skia's premultiplied formulas, also giving the alpha when called with the alphas as colors
+     */
+    private static double blend(int mode, double s, double sa, double d, double da) {
+        switch (mode) {
+            case BlendEngine.CLEAR:
+                return 0;
+            case BlendEngine.SRC:
+                return s;
+            case BlendEngine.SRC_OVER:
+                return s + d * (1 - sa);
+            case BlendEngine.DST_OVER:
+                return d + s * (1 - da);
+            case BlendEngine.SRC_IN:
+                return s * da;
+            case BlendEngine.DST_IN:
+                return d * sa;
+            case BlendEngine.SRC_OUT:
+                return s * (1 - da);
+            case BlendEngine.DST_OUT:
+                return d * (1 - sa);
+            case BlendEngine.SRC_ATOP:
+                return s * da + d * (1 - sa);
+            case BlendEngine.DST_ATOP:
+                return d * sa + s * (1 - da);
+            case BlendEngine.XOR:
+                return s * (1 - da) + d * (1 - sa);
+            case BlendEngine.ADD:
+                return Math.min(1, s + d);
+            case BlendEngine.MULTIPLY:
+                return s * d;
+            case BlendEngine.SCREEN:
+                return s + d - s * d;
+            case BlendEngine.OVERLAY:
+                return s * (1 - da) + d * (1 - sa)
+                        + (2 * d <= da ? 2 * s * d : sa * da - 2 * (da - d) * (sa - s));
+            case BlendEngine.DARKEN:
+                return s * (1 - da) + d * (1 - sa) + Math.min(s * da, d * sa);
+            case BlendEngine.LIGHTEN:
+                return s * (1 - da) + d * (1 - sa) + Math.max(s * da, d * sa);
+            default:
+                // NONE and DST
+                return d;
+        }
+    }
+
+    /**
+     * @return channels red, green, blue, alpha of a premultiplied packed pixel
+     */
+    private static double[] unpack(int pixel) {
+        double[] channels = new double[4];
+        for (int c = 0; c < 4; c++) {
+            channels[c] = KernelTestImages.channel(pixel, c) / 255.0;
+        }
+        return channels;
+    }
+
+    /**
+     * @return channels red, green, blue, alpha of a straight Android ARGB color, premultiplied
+     */
+    private static double[] premultiply(int color) {
+        double a = (color >>> 24) / 255.0;
+        return new double[]{
+                ((color >> 16) & 0xff) / 255.0 * a,
+                ((color >> 8) & 0xff) / 255.0 * a,
+                (color & 0xff) / 255.0 * a,
+                a
+        };
+    }
+
+    private static double clamp(double value) {
+        return Math.max(0, Math.min(1, value));
+    }
+
+    /**
+     * @return opaque, translucent and transparent premultiplied pixels, including the extremes
+     */
+    private static int[] createPixels(Random random, int count) {
+        int[] pixels = new int[count];
+        pixels[0] = 0xFFFFFFFF;
+        pixels[1] = 0xFF000000;
+        pixels[2] = 0x00000000;
+        pixels[3] = 0x80808080;
+        for (int i = 4; i < count; i++) {
+            int a = i % 2 == 0 ? 255 : random.nextInt(256);
+            int r = random.nextInt(a + 1);
+            int g = random.nextInt(a + 1);
+            int b = random.nextInt(a + 1);
+            pixels[i] = a << 24 | b << 16 | g << 8 | r;
+        }
+        return pixels;
+    }
+}
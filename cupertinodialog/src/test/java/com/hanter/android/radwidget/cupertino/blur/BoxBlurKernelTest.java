@@ -0,0 +1,27 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks specific to the box blur, the ones all kernels share are in {@link KernelPropertiesTest}
+ */
+public class BoxBlurKernelTest {
+
+    @Test
+    public void boxesMatchSigma() {
+        int[] sizes = new int[BoxBlurKernel.PASSES];
+        for (float sigma = 1; sigma <= 40; sigma += 0.5f) {
+            BoxBlurKernel.boxesForGauss(sigma, sizes);
+            double variance = 0;
+            for (int size : sizes) {
+                assertEquals(1, size % 2);
+                variance += (size * size - 1) / 12.0;
+            }
+            // One step of the smaller box changes the variance by less than this
+            assertTrue("sigma " + sigma, Math.abs(Math.sqrt(variance) - sigma) < 0.5);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import org.junit.Test;
+
+import static com.hanter.android.radwidget.cupertino.blur.KernelTestImages.assertSameImage;
+import static com.hanter.android.radwidget.cupertino.blur.KernelTestImages.pattern;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks specific to the dual Kawase blur, the ones all kernels share are in {@link KernelPropertiesTest}
+ */
+public class DualKawaseKernelTest {
+
+    private final BlurWorkers workers = new BlurWorkers(1);
+
+    @Test
+    public void levelsFollowRadius() {
+        assertEquals(0, DualKawaseKernel.levelsFor(0.5f, 256, 256));
+        assertEquals(1, DualKawaseKernel.levelsFor(4, 256, 256));
+        assertEquals(2, DualKawaseKernel.levelsFor(8, 256, 256));
+        assertEquals(3, DualKawaseKernel.levelsFor(16, 256, 256));
+        assertEquals(DualKawaseKernel.MAX_LEVELS, DualKawaseKernel.levelsFor(1 << 20, 4096, 4096));
+        // Not below the smallest level size
+        assertEquals(3, DualKawaseKernel.levelsFor(1 << 20, 16, 256));
+    }
+
+    @Test
+    public void belowOneLevelImageIsUnchanged() {
+        int[] source = pattern(64, 48);
+        int[] pixels = source.clone();
+        new DualKawaseKernel(workers).blur(pixels, 64, 48, 0.5f, null);
+        assertSameImage(source, pixels);
+    }
+}
@@ -0,0 +1,23 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import org.junit.Test;
+
+import static com.hanter.android.radwidget.cupertino.blur.KernelTestImages.assertGaussian;
+import static com.hanter.android.radwidget.cupertino.blur.KernelTestImages.pattern;
+
+/**
+ * Checks specific to the IIR Gaussian, the ones all kernels share are in {@link KernelPropertiesTest}
+ */
+public class IirGaussianKernelTest {
+
+    private final BlurWorkers workers = new BlurWorkers(1);
+
+    @Test
+    public void matchesGaussianAtLargeRadius() {
+        // Where box approximations drift, the recursive filter stays as close as at small radii
+        int[] source = pattern(192, 240);
+        int[] pixels = source.clone();
+        new IirGaussianKernel(workers).blur(pixels, 192, 240, 60, null);
+        assertGaussian(source, pixels, 192, 240, 60, 1.0);
+    }
+}
@@ -0,0 +1,171 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import static com.hanter.android.radwidget.cupertino.blur.KernelTestImages.assertCloseImage;
+import static com.hanter.android.radwidget.cupertino.blur.KernelTestImages.assertConstant;
+import static com.hanter.android.radwidget.cupertino.blur.KernelTestImages.assertGaussian;
+import static com.hanter.android.radwidget.cupertino.blur.KernelTestImages.assertSameImage;
+import static com.hanter.android.radwidget.cupertino.blur.KernelTestImages.assertSymmetric;
+import static com.hanter.android.radwidget.cupertino.blur.KernelTestImages.constant;
+import static com.hanter.android.radwidget.cupertino.blur.KernelTestImages.pattern;
+import static com.hanter.android.radwidget.cupertino.blur.KernelTestImages.symmetric;
+
+/**
+ * Properties every CPU blur kernel has, checks specific to one kernel are in its own test
+ */
+@RunWith(Parameterized.class)
+public class KernelPropertiesTest {
+
+    interface Kernel {
+        void blur(BlurWorkers workers, int[] pixels, int width, int height, float radius, BlendEngine blend);
+    }
+
+    private static final Kernel STACK = new Kernel() {
+        @Override
+        public void blur(BlurWorkers workers, int[] pixels, int width, int height, float radius, BlendEngine blend) {
+            new StackBlurKernel(workers).blur(pixels, width, height, radius, blend);
+        }
+    };
+
+    private static final Kernel BOX = new Kernel() {
+        @Override
+        public void blur(BlurWorkers workers, int[] pixels, int width, int height, float radius, BlendEngine blend) {
+            new BoxBlurKernel(workers).blur(pixels, width, height, radius, blend);
+        }
+    };
+
+    private static final Kernel IIR_GAUSSIAN = new Kernel() {
+        @Override
+        public void blur(BlurWorkers workers, int[] pixels, int width, int height, float radius, BlendEngine blend) {
+            new IirGaussianKernel(workers).blur(pixels, width, height, radius, blend);
+        }
+    };
+
+    private static final Kernel DUAL_KAWASE = new Kernel() {
+        @Override
+        public void blur(BlurWorkers workers, int[] pixels, int width, int height, float radius, BlendEngine blend) {
+            new DualKawaseKernel(workers).blur(pixels, width, height, radius, blend);
+        }
+    };
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> kernels() {
+        return Arrays.asList(new Object[][]{
+                // name, kernel, largest radius, symmetry tolerance, Gaussian radius, max mean error to it,
+                // fused blend tolerance
+                {"stack", STACK, (float) StackBlurKernel.MAX_RADIUS, 1, 20f, 2.5, 2},
+                {"box", BOX, 250f, 1, 20f, 2.0, 1},
+                {"iirGaussian", IIR_GAUSSIAN, 250f, 1, 20f, 1.0, 1},
+                // Coarser than the others, the radius is rounded to whole levels
+                {"dualKawase", DUAL_KAWASE, (float) (1 << 20), 2, 32f, 5.0, 2},
+        });
+    }
+
+    @Parameterized.Parameter(0)
+    public String name;
+    @Parameterized.Parameter(1)
+    public Kernel kernel;
+    @Parameterized.Parameter(2)
+    public float largestRadius;
+    @Parameterized.Parameter(3)
+    public int symmetryTolerance;
+    @Parameterized.Parameter(4)
+    public float gaussianRadius;
+    @Parameterized.Parameter(5)
+    public double maxGaussianError;
+    @Parameterized.Parameter(6)
+    public int fusedBlendTolerance;
+
+    private static final int[] BLEND_COLORS = {0xFFFFFFFF, 0xFF000000, 0xB3F8F8F8, 0x661E90FF, 0x20FF4000};
+    private static final int[] BARRIERS = {0x00000000, 0x66FFFFFF, 0xFF202020};
+
+    private final BlurWorkers workers = new BlurWorkers(1);
+
+    @Test
+    public void constantImageStaysConstant() {
+        int[] pixels = constant(37, 23, 0x80402010);
+        kernel.blur(workers, pixels, 37, 23, 6, null);
+        assertConstant(pixels, 0x80402010);
+    }
+
+    @Test
+    public void whiteStaysWhiteAtLargestRadius() {
+        // Largest channel sums still fit their lanes, without carrying into the next channel
+        int[] pixels = constant(512, 512, 0xFFFFFFFF);
+        kernel.blur(workers, pixels, 512, 512, largestRadius, null);
+        assertConstant(pixels, 0xFFFFFFFF);
+    }
+
+    @Test
+    public void edgesAreClamped() {
+        // Radius larger than the image, outside pixels repeat the edge instead of darkening it
+        int[] pixels = constant(9, 5, 0xFF808080);
+        kernel.blur(workers, pixels, 9, 5, 40, null);
+        assertConstant(pixels, 0xFF808080);
+    }
+
+    @Test
+    public void outputIsSymmetric() {
+        int[] pixels = symmetric(64, 48);
+        kernel.blur(workers, pixels, 64, 48, 8, null);
+        assertSymmetric(pixels, 64, 48, symmetryTolerance);
+    }
+
+    @Test
+    public void matchesGaussian() {
+        int[] source = pattern(192, 240);
+        int[] pixels = source.clone();
+        kernel.blur(workers, pixels, 192, 240, gaussianRadius, null);
+        assertGaussian(source, pixels, 192, 240, gaussianRadius, maxGaussianError);
+    }
+
+    @Test
+    public void bandsMatchSingleThread() {
+        int[] single = pattern(192, 240);
+        int[] banded = single.clone();
+        kernel.blur(workers, single, 192, 240, 12, null);
+        kernel.blur(new BlurWorkers(4), banded, 192, 240, 12, null);
+        assertSameImage(single, banded);
+    }
+
+    @Test
+    public void fusedBlendMatchesSeparatePasses() {
+        // Separately the barrier is drawn over the capture before the blur and the overlay is blended after it.
+        // Fused, both are applied to the blurred pixels: the results only differ by rounding,
+        // which OVERLAY doubles where it's steepest.
+        int[] source = pattern(96, 120);
+        BlendEngine fused = new BlendEngine();
+        BlendEngine barrierPass = new BlendEngine();
+        BlendEngine overlayPass = new BlendEngine();
+        for (int barrier : BARRIERS) {
+            for (int color : BLEND_COLORS) {
+                for (int mode = BlendEngine.NONE; mode <= BlendEngine.LIGHTEN; mode++) {
+                    fused.setColors(barrier, color, mode);
+                    if (fused.isIdentity()) {
+                        continue;
+                    }
+                    int[] expected = source.clone();
+                    barrierPass.setColors(barrier, 0, BlendEngine.NONE);
+                    barrierPass.blend(expected, 0, expected.length);
+                    kernel.blur(workers, expected, 96, 120, 12, null);
+                    overlayPass.setOverlay(color, mode);
+                    overlayPass.blend(expected, 0, expected.length);
+
+                    int[] actual = source.clone();
+                    kernel.blur(workers, actual, 96, 120, 12, fused);
+
+                    int tolerance = mode == BlendEngine.OVERLAY ? 2 * fusedBlendTolerance : fusedBlendTolerance;
+                    assertCloseImage("barrier " + Integer.toHexString(barrier) + ", color "
+                                    + Integer.toHexString(color) + ", mode " + mode,
+                            expected, actual, tolerance);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test images and reference results shared by the kernel tests.
+ * Pixels are packed like the raw content of an ARGB_8888 bitmap, all of them opaque.
+ */
+final class KernelTestImages {
+
+    private KernelTestImages() {
+    }
+
+    static int[] constant(int width, int height, int color) {
+        int[] pixels = new int[width * height];
+        Arrays.fill(pixels, color);
+        return pixels;
+    }
+
+    /**
+     * @return content like the one dialogs blur: a checkerboard, text lines, a gradient
+     */
+    static int[] pattern(int width, int height) {
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int color;
+                if (x >= width * 3 / 4) {
+                    color = 0xFF0000FF | ((x * 4 & 0xFF) << 8) | ((y & 0xFF) << 16);
+                } else if (y >= height / 2) {
+                    color = x % 6 < 2 && y % 10 < 7 ? 0xFF000000 : 0xFFF0F0F0;
+                } else {
+                    color = (x / 8 + y / 8) % 2 == 0 ? 0xFFFFFFFF : 0xFF202020;
+                }
+                pixels[y * width + x] = color;
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * @return image symmetric to both its center lines: a bright cross and a dot in every corner on black,
+     * the cross is two pixels wide along an even size
+     */
+    static int[] symmetric(int width, int height) {
+        int[] pixels = constant(width, height, 0xFF000000);
+        for (int x = 0; x < width; x++) {
+            pixels[(height - 1) / 2 * width + x] = 0xFF4080C0;
+            pixels[height / 2 * width + x] = 0xFF4080C0;
+        }
+        for (int y = 0; y < height; y++) {
+            pixels[y * width + (width - 1) / 2] = 0xFFC08040;
+            pixels[y * width + width / 2] = 0xFFC08040;
+        }
+        pixels[2 * width + 2] = 0xFFFFFFFF;
+        pixels[2 * width + width - 3] = 0xFFFFFFFF;
+        pixels[(height - 3) * width + 2] = 0xFFFFFFFF;
+        pixels[(height - 3) * width + width - 3] = 0xFFFFFFFF;
+        return pixels;
+    }
+
+    /**
+     * Separable Gaussian convolution with edge pixels repeated, in double precision
+     */
+    static int[] gaussian(int[] pixels, int width, int height, double sigma) {
+        int half = (int) Math.ceil(3 * sigma);
+        double[] kernel = new double[2 * half + 1];
+        double sum = 0;
+        for (int i = -half; i <= half; i++) {
+            kernel[i + half] = Math.exp(-i * i / (2 * sigma * sigma));
+            sum += kernel[i + half];
+        }
+        for (int i = 0; i < kernel.length; i++) {
+            kernel[i] /= sum;
+        }
+
+        double[][] rows = new double[4][width * height];
+        for (int c = 0; c < 4; c++) {
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    double value = 0;
+                    for (int i = -half; i <= half; i++) {
+                        int sx = Math.min(width - 1, Math.max(0, x + i));
+                        value += kernel[i + half] * channel(pixels[y * width + sx], c);
+                    }
+                    rows[c][y * width + x] = value;
+                }
+            }
+        }
+
+        int[] result = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int pixel = 0;
+                for (int c = 0; c < 4; c++) {
+                    double value = 0;
+                    for (int i = -half; i <= half; i++) {
+                        int sy = Math.min(height - 1, Math.max(0, y + i));
+                        value += kernel[i + half] * rows[c][sy * width + x];
+                    }
+                    pixel |= Math.min(255, (int) Math.round(value)) << (8 * c);
+                }
+                result[y * width + x] = pixel;
+            }
+        }
+        return result;
+    }
+
+    static int channel(int pixel, int channel) {
+        return pixel >>> (8 * channel) & 0xFF;
+    }
+
+    /**
+     * @return mean absolute difference per channel
+     */
+    static double meanError(int[] expected, int[] actual) {
+        long sum = 0;
+        for (int i = 0; i < expected.length; i++) {
+            for (int c = 0; c < 4; c++) {
+                sum += Math.abs(channel(expected[i], c) - channel(actual[i], c));
+            }
+        }
+        return sum / (4.0 * expected.length);
+    }
+
+    static void assertConstant(int[] pixels, int color) {
+        for (int i = 0; i < pixels.length; i++) {
+            if (pixels[i] != color) {
+                throw new AssertionError("pixel " + i + " is " + Integer.toHexString(pixels[i])
+                        + ", expected " + Integer.toHexString(color));
+            }
+        }
+    }
+
+    /**
+     * Asserts that the image is mirrored along both center lines, within the tolerance per channel
+     */
+    static void assertSymmetric(int[] pixels, int width, int height, int tolerance) {
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int pixel = pixels[y * width + x];
+                int mirroredX = pixels[y * width + width - 1 - x];
+                int mirroredY = pixels[(height - 1 - y) * width + x];
+                for (int c = 0; c < 4; c++) {
+                    assertTrue("asymmetric at " + x + "," + y,
+                            Math.abs(channel(pixel, c) - channel(mirroredX, c)) <= tolerance
+                                    && Math.abs(channel(pixel, c) - channel(mirroredY, c)) <= tolerance);
+                }
+            }
+        }
+    }
+
+    /**
+     * Asserts that the image matches a Gaussian blur of the source on average
+     */
+    static void assertGaussian(int[] source, int[] actual, int width, int height, float radius,
+                               double maxMeanError) {
+        int[] expected = gaussian(source, width, height, BoxBlurKernel.radiusToSigma(radius));
+        double error = meanError(expected, actual);
+        assertTrue("mean error " + error + " exceeds " + maxMeanError, error <= maxMeanError);
+    }
+
+    static void assertSameImage(int[] expected, int[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] != actual[i]) {
+                throw new AssertionError("pixel " + i + " is " + Integer.toHexString(actual[i])
+                        + ", expected " + Integer.toHexString(expected[i]));
+            }
+        }
+    }
+
+    /**
+     * Asserts that every channel of every pixel is within the tolerance of the expected one
+     */
+    static void assertCloseImage(String message, int[] expected, int[] actual, int tolerance) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            for (int c = 0; c < 4; c++) {
+                if (Math.abs(channel(expected[i], c) - channel(actual[i], c)) > tolerance) {
+                    throw new AssertionError(message + ": pixel " + i + " is " + Integer.toHexString(actual[i])
+                            + ", expected " + Integer.toHexString(expected[i]) + " within " + tolerance);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.hanter.android.radwidget.cupertino.blur;
+
+import org.junit.Test;
+
+import static com.hanter.android.radwidget.cupertino.blur.KernelTestImages.assertSameImage;
+import static com.hanter.android.radwidget.cupertino.blur.KernelTestImages.pattern;
+
+/**
+ * Checks specific to the stack blur, the ones all kernels share are in {@link KernelPropertiesTest}
+ */
+public class StackBlurKernelTest {
+
+    private final BlurWorkers workers = new BlurWorkers(1);
+
+    @Test
+    public void radiusIsClampedToMaxRadius() {
+        int[] clamped = pattern(64, 48);
+        int[] max = pattern(64, 48);
+        new StackBlurKernel(workers).blur(clamped, 64, 48, 10 * StackBlurKernel.MAX_RADIUS, null);
+        new StackBlurKernel(workers).blur(max, 64, 48, StackBlurKernel.MAX_RADIUS, null);
+        assertSameImage(max, clamped);
+    }
+}